@@ -0,0 +1,153 @@
+package org.onlyoffice.benchmarks;
+
+import java.lang.reflect.Proxy;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.blobholder.SimpleBlobHolder;
+import org.onlyoffice.utils.ConfigManager;
+import org.onlyoffice.utils.ConfigManagerImpl;
+import org.onlyoffice.utils.EditorConfigManager;
+import org.onlyoffice.utils.EditorConfigManagerImpl;
+import org.onlyoffice.utils.FormatDescriptor;
+import org.onlyoffice.utils.FormatManager;
+import org.onlyoffice.utils.FormatManagerImpl;
+import org.onlyoffice.utils.JwtManager;
+import org.onlyoffice.utils.JwtManagerImpl;
+import org.onlyoffice.utils.Utils;
+import org.onlyoffice.utils.UtilsImpl;
+
+public final class BenchmarkSupport {
+
+    public static final String SECRET = "onlyoffice-benchmark-secret";
+
+    public static final String DOC_ID = "4b1e5f0c-2f56-4d7e-9a4b-4f1f0d8f6a21";
+
+    public static final String CHANGE_TOKEN = "17-0";
+
+    static {
+        // without a running Nuxeo runtime, Framework properties are read from system properties
+        System.setProperty("onlyoffice.jwt.secret", SECRET);
+    }
+
+    private BenchmarkSupport() {
+    }
+
+    public static JwtManager newJwtManager() {
+        ConfigManager config = new ConfigManagerImpl();
+        return new JwtManagerImpl() {
+            @Override
+            protected ConfigManager getConfig() {
+                return config;
+            }
+        };
+    }
+
+    public static JwtManager newDisabledJwtManager() {
+        ConfigManager config = new ConfigManagerImpl();
+        return new JwtManagerImpl() {
+            @Override
+            protected ConfigManager getConfig() {
+                return config;
+            }
+
+            @Override
+            public Boolean isEnabled() {
+                return false;
+            }
+        };
+    }
+
+    public static EditorConfigManager newEditorConfigManager(JwtManager jwtManager) {
+        ConfigManager config = new ConfigManagerImpl();
+        Utils utils = newUtils();
+        return new EditorConfigManagerImpl() {
+            @Override
+            protected ConfigManager getConfig() {
+                return config;
+            }
+
+            @Override
+            protected JwtManager getJwtManager() {
+                return jwtManager;
+            }
+
+            @Override
+            protected Utils getUtils() {
+                return utils;
+            }
+        };
+    }
+
+    public static FormatManager newFormatManager() {
+        FormatManagerImpl formatManager = new FormatManagerImpl();
+        String[][] formats = {
+                { "text", "doc", "docx", "docm", "dot", "dotx", "dotm", "odt", "fodt", "ott", "rtf", "txt", "html", "htm", "mht", "pdf", "djvu", "fb2", "epub", "xps" },
+                { "spreadsheet", "xls", "xlsx", "xlsm", "xlt", "xltx", "xltm", "ods", "fods", "ots", "csv" },
+                { "presentation", "pps", "ppsx", "ppsm", "ppt", "pptx", "pptm", "pot", "potx", "potm", "odp", "fodp", "otp" } };
+        for (String[] group : formats) {
+            for (int i = 1; i < group.length; i++) {
+                formatManager.registerContribution(new FormatDescriptor(group[i], group[0], group[i].endsWith("x")),
+                        FormatManagerImpl.FORMATS_EP, null);
+            }
+        }
+        return formatManager;
+    }
+
+    public static Utils newUtils() {
+        FormatManager formatManager = newFormatManager();
+        return new UtilsImpl() {
+            @Override
+            protected FormatManager getFormatManager() {
+                return formatManager;
+            }
+        };
+    }
+
+    public static DocumentModel newDocument() {
+        Blob blob = Blobs.createBlob("", "application/vnd.openxmlformats-officedocument.wordprocessingml.document", null,
+                "Quarterly report.docx");
+        return (DocumentModel) Proxy.newProxyInstance(DocumentModel.class.getClassLoader(),
+                new Class<?>[] { DocumentModel.class }, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "getId":
+                        return DOC_ID;
+                    case "getRepositoryName":
+                        return "default";
+                    case "getAdapter":
+                        return new SimpleBlobHolder(blob);
+                    case "hasFacet":
+                        return false;
+                    case "getChangeToken":
+                        return CHANGE_TOKEN;
+                    case "getTitle":
+                        return "Quarterly report";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    public static JSONObject newCallback(int size) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("status", 2);
+        json.put("key", newUtils().getDocumentKey(newDocument(), null));
+        json.put("url", "http://documentserver/cache/files/" + DOC_ID + "/output.docx/output.docx?md5=Xh6f1MqEfDU5lF5c3B3m6A&expires=1700000000&filename=output.docx");
+        json.put("changesurl", "http://documentserver/cache/files/" + DOC_ID + "/changes.zip/changes.zip");
+
+        JSONArray users = new JSONArray();
+        users.put("Administrator");
+        json.put("users", users);
+
+        StringBuilder history = new StringBuilder();
+        while (json.toString().length() + history.length() < size) {
+            history.append("change;");
+        }
+        json.put("history", history.toString());
+
+        return json;
+    }
+}
@@ -0,0 +1,84 @@
+package org.onlyoffice.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.json.JSONObject;
+import org.onlyoffice.utils.JwtManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Mirrors the body parsing and token decoding of {@code Callback.postCallback}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CallbackBenchmark {
+
+    @Param({ "256", "4096", "65536" })
+    public int payloadSize;
+
+    private JwtManager jwtManager;
+
+    private byte[] plainBody;
+
+    private byte[] signedBody;
+
+    private byte[] headerBody;
+
+    private String header;
+
+    @Setup
+    public void setup() throws Exception {
+        jwtManager = BenchmarkSupport.newJwtManager();
+
+        JSONObject callback = BenchmarkSupport.newCallback(payloadSize);
+        plainBody = callback.toString().getBytes(StandardCharsets.UTF_8);
+
+        JSONObject signed = new JSONObject(callback.toString());
+        signed.put("token", jwtManager.createToken(callback));
+        signedBody = signed.toString().getBytes(StandardCharsets.UTF_8);
+
+        JSONObject wrapped = new JSONObject();
+        wrapped.put("payload", callback);
+        header = "Bearer " + jwtManager.createToken(wrapped);
+        headerBody = plainBody;
+    }
+
+    @Benchmark
+    public JSONObject parseUnsigned() throws Exception {
+        return new JSONObject(IOUtils.toString(new ByteArrayInputStream(plainBody), Charset.defaultCharset()));
+    }
+
+    @Benchmark
+    public JSONObject parseTokenInBody() throws Exception {
+        JSONObject json = new JSONObject(IOUtils.toString(new ByteArrayInputStream(signedBody), Charset.defaultCharset()));
+        return jwtManager.verifyAndDecode(json.optString("token"));
+    }
+
+    @Benchmark
+    public JSONObject parseTokenInHeader() throws Exception {
+        JSONObject json = new JSONObject(IOUtils.toString(new ByteArrayInputStream(headerBody), Charset.defaultCharset()));
+        String token = json.optString("token");
+        if (token.isEmpty()) {
+            token = header.substring(7);
+        }
+        return jwtManager.verifyAndDecode(token).getJSONObject("payload");
+    }
+}
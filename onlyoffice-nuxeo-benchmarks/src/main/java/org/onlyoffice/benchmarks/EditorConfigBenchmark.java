@@ -0,0 +1,57 @@
+package org.onlyoffice.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.onlyoffice.utils.EditorConfigManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Builds the editor config of a main file with {@code EditorConfigManager.buildConfig}, as on a config cache miss.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditorConfigBenchmark {
+
+    private static final String BASE_URL = "https://nuxeo.example.com";
+
+    private static final String TOKEN = "0b3c9ad4-5d42-4b5b-8f52-7c1e1f0b4a9d";
+
+    private EditorConfigManager editorConfigManager;
+
+    private EditorConfigManager signingEditorConfigManager;
+
+    private DocumentModel model;
+
+    @Setup
+    public void setup() {
+        editorConfigManager = BenchmarkSupport.newEditorConfigManager(BenchmarkSupport.newDisabledJwtManager());
+        signingEditorConfigManager = BenchmarkSupport.newEditorConfigManager(BenchmarkSupport.newJwtManager());
+        model = BenchmarkSupport.newDocument();
+    }
+
+    @Benchmark
+    public JSONObject buildConfig() throws Exception {
+        return editorConfigManager.buildConfig(model, "Administrator", BASE_URL, "en-US", TOKEN, "edit", null, null, null);
+    }
+
+    @Benchmark
+    public String buildSignedConfig() throws Exception {
+        return signingEditorConfigManager.buildConfig(model, "Administrator", BASE_URL, "en-US", TOKEN, "edit", null,
+                null, null).toString();
+    }
+}
@@ -0,0 +1,57 @@
+package org.onlyoffice.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONObject;
+import org.onlyoffice.utils.JwtManager;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JwtManagerBenchmark {
+
+    @Param({ "256", "4096", "65536" })
+    public int payloadSize;
+
+    private JwtManager jwtManager;
+
+    private JSONObject payload;
+
+    private String token;
+
+    @Setup
+    public void setup() throws Exception {
+        jwtManager = BenchmarkSupport.newJwtManager();
+        payload = BenchmarkSupport.newCallback(payloadSize);
+        token = jwtManager.createToken(payload);
+    }
+
+    @Benchmark
+    public String createToken() throws Exception {
+        return jwtManager.createToken(payload);
+    }
+
+    @Benchmark
+    public Boolean verify() {
+        return jwtManager.verify(token);
+    }
+
+    @Benchmark
+    public JSONObject verifyAndDecode() {
+        return jwtManager.verifyAndDecode(token);
+    }
+}
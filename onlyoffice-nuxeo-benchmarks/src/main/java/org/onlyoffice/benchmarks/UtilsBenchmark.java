@@ -0,0 +1,70 @@
+package org.onlyoffice.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.onlyoffice.utils.Utils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilsBenchmark {
+
+    @Param({ "Quarterly report.docx", "Budget 2019.final.XLSX", "slides.odp", "archive.zip" })
+    public String filename;
+
+    private Utils utils;
+
+    private DocumentModel model;
+
+    private String key;
+
+    private String ext;
+
+    @Setup
+    public void setup() {
+        utils = BenchmarkSupport.newUtils();
+        model = BenchmarkSupport.newDocument();
+        key = utils.getDocumentKey(model, null);
+        ext = utils.getFileExtension(filename);
+    }
+
+    @Benchmark
+    public String getDocumentKey() {
+        return utils.getDocumentKey(model, null);
+    }
+
+    @Benchmark
+    public String getAttachmentDocumentKey() {
+        return utils.getDocumentKey(model, "3");
+    }
+
+    @Benchmark
+    public String getChangeToken() {
+        return utils.getChangeToken(key);
+    }
+
+    @Benchmark
+    public String getFileExtension() {
+        return utils.getFileExtension(filename);
+    }
+
+    @Benchmark
+    public String getDocumentType() {
+        return utils.getDocumentType(ext);
+    }
+}
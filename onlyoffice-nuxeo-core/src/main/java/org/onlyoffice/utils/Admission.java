@@ -0,0 +1,29 @@
+package org.onlyoffice.utils;
+
+import java.util.concurrent.Semaphore;
+
+public class Admission implements AutoCloseable {
+
+    private final Semaphore[] permits;
+
+    private final Runnable onRelease;
+
+    private boolean released;
+
+    Admission(Runnable onRelease, Semaphore... permits) {
+        this.permits = permits;
+        this.onRelease = onRelease;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        for (Semaphore permit : permits) {
+            permit.release();
+        }
+        onRelease.run();
+    }
+}
@@ -0,0 +1,5 @@
+package org.onlyoffice.utils;
+
+public interface AdmissionController {
+    public Admission admit(String docId, Integer status) throws CallbackRejectedException;
+}
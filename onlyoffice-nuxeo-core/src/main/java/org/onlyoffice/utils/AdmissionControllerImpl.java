@@ -0,0 +1,180 @@
+package org.onlyoffice.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+public class AdmissionControllerImpl extends DefaultComponent implements AdmissionController {
+
+    private static final long RETRY_AFTER = 5;
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Timer waitTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "admission", "wait"));
+
+    private final Counter rateRejections = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "rejected", "rate"));
+
+    private final Counter concurrencyRejections = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "rejected", "concurrency"));
+
+    private final Counter documentRejections = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "rejected", "document"));
+
+    private final Map<String, DocumentPermits> documents = new ConcurrentHashMap<String, DocumentPermits>();
+
+    private final ConfigListener listener = (previous, current) -> resetLimits();
+
+    private Limits limits;
+
+    private ConfigManager config;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
+    @Override
+    public Admission admit(String docId, Integer status) throws CallbackRejectedException {
+        Limits limits = getLimits();
+        boolean save = status != null && (status == 2 || status == 6);
+
+        // status changes are cheap and release locks, only saves are rate limited
+        if (save && limits.bucket != null) {
+            long wait = limits.bucket.tryAcquire();
+            if (wait > 0) {
+                rateRejections.inc();
+                throw new CallbackRejectedException("Callback rate limit exceeded",
+                        Math.max(1, TimeUnit.MILLISECONDS.toSeconds(wait + 999)), CallbackRejectedException.TOO_MANY_REQUESTS);
+            }
+        }
+
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(limits.wait);
+
+        DocumentPermits document = documents.compute(docId, (id, permits) -> {
+            if (permits == null) {
+                permits = new DocumentPermits(limits.perDocument);
+            }
+            permits.users++;
+            return permits;
+        });
+        Runnable leave = () -> documents.computeIfPresent(docId, (id, permits) -> --permits.users == 0 ? null : permits);
+
+        List<Semaphore> acquired = new ArrayList<Semaphore>(3);
+        try {
+            if (!tryAcquire(document.semaphore, deadline)) {
+                documentRejections.inc();
+                throw new CallbackRejectedException("Too many concurrent callbacks for document " + docId, RETRY_AFTER);
+            }
+            acquired.add(document.semaphore);
+
+            // saves cannot take the permits reserved for the other statuses
+            if (save) {
+                if (!tryAcquire(limits.saves, deadline)) {
+                    concurrencyRejections.inc();
+                    throw new CallbackRejectedException("Too many concurrent saves", RETRY_AFTER);
+                }
+                acquired.add(limits.saves);
+            }
+
+            if (!tryAcquire(limits.callbacks, deadline)) {
+                concurrencyRejections.inc();
+                throw new CallbackRejectedException("Too many concurrent callbacks", RETRY_AFTER);
+            }
+            acquired.add(limits.callbacks);
+        } catch (CallbackRejectedException e) {
+            for (Semaphore semaphore : acquired) {
+                semaphore.release();
+            }
+            leave.run();
+            throw e;
+        }
+
+        waitTimer.update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        return new Admission(leave, acquired.toArray(new Semaphore[acquired.size()]));
+    }
+
+    private boolean tryAcquire(Semaphore semaphore, long deadline) {
+        try {
+            return semaphore.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CallbackRejectedException("Interrupted while waiting for admission", RETRY_AFTER);
+        }
+    }
+
+    private synchronized Limits getLimits() {
+        if (limits == null) {
+            limits = new Limits(getConfig());
+        }
+        return limits;
+    }
+
+    /**
+     * Admitted callbacks release the permits of the limits they were admitted with.
+     */
+    private synchronized void resetLimits() {
+        limits = null;
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    private static final class Limits {
+
+        private final Semaphore callbacks;
+
+        private final Semaphore saves;
+
+        private final int perDocument;
+
+        private final long wait;
+
+        private final TokenBucket bucket;
+
+        private Limits(ConfigManager config) {
+            int concurrency = Math.max(1, config.getCallbackConcurrency());
+            int reserved = Math.min(Math.max(0, config.getCallbackReserved()), concurrency - 1);
+            double rate = config.getCallbackRate();
+            double burst = config.getCallbackBurst();
+
+            this.callbacks = new Semaphore(concurrency, true);
+            this.saves = new Semaphore(concurrency - reserved, true);
+            this.perDocument = Math.max(1, config.getCallbackDocumentConcurrency());
+            this.wait = config.getCallbackWait();
+            this.bucket = rate > 0 ? new TokenBucket(rate, burst > 0 ? burst : rate) : null;
+        }
+    }
+
+    private static final class DocumentPermits {
+
+        private final Semaphore semaphore;
+
+        private int users;
+
+        private DocumentPermits(int permits) {
+            this.semaphore = new Semaphore(permits, true);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package org.onlyoffice.utils;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+public interface CallbackManager {
+    public void handleCallback(CoreSession session, DocumentModel model, JSONObject json) throws Exception;
+    public void processCallback(CoreSession session, DocumentModel model, JSONObject json) throws Exception;
+    public void forgetCallback(String docId, JSONObject json);
+}
@@ -0,0 +1,427 @@
+package org.onlyoffice.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.automation.core.util.DocumentHelper;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.versioning.VersioningService;
+import org.nuxeo.ecm.core.schema.FacetNames;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
+import org.nuxeo.ecm.core.work.api.WorkQueueMetrics;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CallbackManagerImpl extends DefaultComponent implements CallbackManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(CallbackManagerImpl.class);
+
+    private static final long RETRY_AFTER = 30;
+
+    private static final String STREAM_WORK_PROPERTY = "nuxeo.stream.work.enabled";
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Counter dedupHits = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "dedup", "hit"));
+
+    private final Counter dedupMisses = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "dedup", "miss"));
+
+    private final Counter locks = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "lock", "set"));
+
+    private final Counter unlocks = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "lock", "remove"));
+
+    private final Counter saveFailures = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "save", "failure"));
+
+    private final Counter saveSkips = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "save", "skipped"));
+
+    private final Counter saveVersions = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "save", "versions"));
+
+    private final Counter forceSaveFailures = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "forcesave", "failure"));
+
+    private final ConfigListener listener = this::configChanged;
+
+    private SavePolicy savePolicy;
+    private volatile boolean asyncWarned;
+
+    private ConfigManager config;
+    private ConversionManager conversionManager;
+    private DownloadManager downloadManager;
+    private SessionRegistry sessionRegistry;
+    private Utils utils;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
+    @Override
+    public void handleCallback(CoreSession session, DocumentModel model, JSONObject json) throws Exception {
+        // Document Server only sends status 1 when users come and go, any callback shows the session is alive
+        if (json.has("key")) {
+            getSessionRegistry().touch(model.getId(), json.getString("key"));
+        }
+
+        String dedupKey = getDedupKey(model.getId(), json);
+        if (dedupKey != null) {
+            if (!getSessionRegistry().claimCallback(dedupKey)) {
+                dedupHits.inc();
+                logger.info("Duplicate callback with status " + json.getInt("status") + " for " + model.getId() + " ignored");
+                return;
+            }
+            dedupMisses.inc();
+        }
+
+        try {
+            int status = json.getInt("status");
+            if ((status == 2 || status == 6) && isAsync()) {
+                scheduleSave(session, model, json);
+            } else {
+                processCallback(session, model, json);
+                if (dedupKey != null) {
+                    releaseOnRollback(dedupKey);
+                }
+            }
+        } catch (Exception e) {
+            if (dedupKey != null) {
+                getSessionRegistry().releaseCallback(dedupKey);
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public void processCallback(CoreSession session, DocumentModel model, JSONObject json) throws Exception {
+        String key = json.optString("key");
+        switch (json.getInt("status")) {
+        case 0:
+            logger.error("ONLYOFFICE has reported that no doc with the specified key can be found");
+            unlock(model, key);
+            break;
+        case 1:
+            if (getSessionRegistry().join(model.getId(), key, getUsers(json)) && !model.isLocked()) {
+                logger.info("Document open for editing, locking document");
+                Lock lock = model.setLock();
+                getSessionRegistry().putLock(model.getId(), lock);
+                locks.inc();
+            } else {
+                logger.debug("Document already locked, another user has entered/exited");
+            }
+            break;
+        case 2:
+            logger.info("Document Updated, changing content");
+            try {
+                updateDocument(session, model, json, false);
+            } catch (Exception e) {
+                // keep the lock so that the edits are not overwritten before Document Server retries
+                saveFailures.inc();
+                throw e;
+            }
+            unlock(model, key);
+            break;
+        case 3:
+            logger.error("ONLYOFFICE has reported that saving the document has failed");
+            unlock(model, key);
+            break;
+        case 4:
+            logger.info("No document updates, unlocking node");
+            unlock(model, key);
+            break;
+        case 6:
+            logger.info("Document force saved, changing content and keeping the lock");
+            try {
+                updateDocument(session, model, json, true);
+            } catch (Exception e) {
+                saveFailures.inc();
+                throw e;
+            }
+            break;
+        case 7:
+            logger.error("ONLYOFFICE has reported that force saving the document has failed");
+            forceSaveFailures.inc();
+            break;
+        }
+    }
+
+    @Override
+    public void forgetCallback(String docId, JSONObject json) {
+        String dedupKey = getDedupKey(docId, json);
+        if (dedupKey != null) {
+            getSessionRegistry().releaseCallback(dedupKey);
+        }
+    }
+
+    /**
+     * The save is written when the transaction commits, so that a retry of a save rolled back is not taken for a
+     * duplicate.
+     */
+    private void releaseOnRollback(String dedupKey) {
+        if (!TransactionHelper.isTransactionActiveOrMarkedRollback()) {
+            return;
+        }
+        TransactionHelper.registerSynchronization(new Synchronization() {
+            @Override
+            public void beforeCompletion() {
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                if (status != Status.STATUS_COMMITTED) {
+                    getSessionRegistry().releaseCallback(dedupKey);
+                }
+            }
+        });
+    }
+
+    private String getDedupKey(String docId, JSONObject json) {
+        // only saves are worth deduplicating, the other statuses may legitimately repeat
+        // with the same key when the document is closed and opened again
+        int status = json.optInt("status", -1);
+        if (status != 2 && status != 6) {
+            return null;
+        }
+        return String.join("|", docId, String.valueOf(status), json.optString("key"), json.optString("url"),
+                json.optString("digest"));
+    }
+
+    private synchronized void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        if (!previous.getSaveCoalesceWindow().equals(current.getSaveCoalesceWindow())
+                || !previous.getVersionSaves().equals(current.getVersionSaves())
+                || !previous.getVersionInterval().equals(current.getVersionInterval())
+                || !previous.getSavePolicySize().equals(current.getSavePolicySize())) {
+            savePolicy = null;
+        }
+    }
+
+    private synchronized SavePolicy getSavePolicy() {
+        if (savePolicy == null) {
+            savePolicy = new SavePolicy(getConfig().getSaveCoalesceWindow(), getConfig().getVersionSaves(),
+                    getConfig().getVersionInterval(), getConfig().getSavePolicySize());
+        }
+        return savePolicy;
+    }
+
+    private void unlock(DocumentModel model, String key) {
+        if (getSessionRegistry().leave(model.getId(), key)) {
+            model.removeLock();
+            unlocks.inc();
+        } else {
+            logger.debug("Document is still edited in another session, keeping the lock");
+        }
+    }
+
+    private List<String> getUsers(JSONObject json) {
+        List<String> users = new ArrayList<String>();
+        JSONArray array = json.optJSONArray("users");
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                users.add(array.optString(i));
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Saves are only acknowledged before they run when the work queues are persisted, since Document Server drops
+     * the edits once a save is acknowledged and an in-memory queue loses them on a restart.
+     */
+    private boolean isAsync() {
+        if (!getConfig().isCallbackAsync()) {
+            return false;
+        }
+        if (!Framework.isBooleanPropertyTrue(STREAM_WORK_PROPERTY)) {
+            if (!asyncWarned) {
+                asyncWarned = true;
+                logger.warn("onlyoffice.callback.async requires persistent work queues (" + STREAM_WORK_PROPERTY
+                        + "=true), documents are saved synchronously");
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private void scheduleSave(CoreSession session, DocumentModel model, JSONObject json) throws Exception {
+        WorkManager workManager = Framework.getService(WorkManager.class);
+
+        WorkQueueMetrics metrics = workManager.getMetrics(SaveWork.QUEUE_ID);
+        long depth = metrics.getScheduled().longValue() + metrics.getRunning().longValue();
+        if (depth >= getConfig().getCallbackQueueSize()) {
+            throw new CallbackRejectedException("Save queue is full (" + depth + " pending saves)", RETRY_AFTER);
+        }
+
+        // each force save carries its own url, so that none of them is dropped as already scheduled
+        String saveKey = json.getString("key") + ":" + json.getInt("status") + ":"
+                + DigestUtils.md5Hex(json.optString("url"));
+        SaveWork work = new SaveWork(session.getRepositoryName(), model.getId(), session.getPrincipal().getName(),
+                saveKey, json.toString());
+        // appended to the work stream right away, so that the save is stored before Document Server gets the answer
+        workManager.schedule(work, Scheduling.IF_NOT_SCHEDULED, false);
+
+        logger.info("Document save scheduled for " + model.getId() + ", " + depth + " saves pending");
+    }
+
+    private void updateDocument(CoreSession session, DocumentModel model, JSONObject json, boolean forceSave) throws Exception {
+        String key = json.getString("key");
+        String url = json.getString("url");
+        String digest = json.optString("digest");
+        String indexHint = json.optString("index");
+
+        // Document Server keeps the key of the session after a force save, so while the file is still
+        // the force saved one the change token of the key is outdated by our own save only, and the
+        // attachment is found by the digest of the force saved file
+        String changeToken = getUtils().getChangeToken(key);
+        ForceSave previous = ForceSave.get(model, key);
+        if (previous != null) {
+            String lastSave = json.optString("lastsave");
+            if (forceSave && !lastSave.isEmpty() && lastSave.compareTo(previous.getLastSave()) < 0) {
+                logger.info("Force save of " + model.getId() + " from " + lastSave + " is older than the saved one, skipping");
+                return;
+            }
+            if (previous.isCurrent(model)) {
+                changeToken = model.getChangeToken();
+            }
+            if (!digest.isEmpty()) {
+                digest = previous.getDigest();
+            }
+        }
+
+        String xpath = "file:content";
+        Blob original;
+        Blob saved;
+        if (digest.isEmpty()) {
+            original = getBlob(model, "file:content");
+            saved = getDownloadManager().download(url, original.getMimeType(), original.getEncoding(), original.getFilename());
+            if (SavePolicy.isUnchanged(original, saved)) {
+                saveSkips.inc();
+                logger.info("Saved content of " + model.getId() + " is unchanged, skipping the update");
+                return;
+            }
+
+            DocumentHelper.addBlob(model.getProperty("file:content"), saved);
+        } else {
+            Integer index = getUtils().getAttachmentIndex(model, digest, indexHint);
+            if (index == null) {
+                return;
+            }
+
+            xpath = "files:files/" + index + "/file";
+            original = (Blob) model.getPropertyValue(xpath);
+            saved = getDownloadManager().download(url, original.getMimeType(), original.getEncoding(), original.getFilename());
+            if (SavePolicy.isUnchanged(original, saved)) {
+                saveSkips.inc();
+                logger.info("Saved attachment " + index + " of " + model.getId() + " is unchanged, skipping the update");
+                return;
+            }
+            model.setPropertyValue(xpath, (Serializable) saved);
+        }
+
+        VersioningOption vo = getVersioningOption(forceSave ? getConfig().getForcesaveVersioning() : getConfig().getSaveVersioning());
+        boolean version = vo != VersioningOption.NONE && getSavePolicy().shouldVersion(model.getId());
+        if (model.hasFacet(FacetNames.VERSIONABLE)) {
+            model.putContextData(VersioningService.VERSIONING_OPTION, version ? vo : VersioningOption.NONE);
+        }
+
+        if (forceSave) {
+            ForceSave.put(model, new ForceSave(key, xpath, saved.getDigest(), json.optString("lastsave")));
+        } else {
+            ForceSave.remove(model, key);
+        }
+
+        model.putContextData(CoreSession.CHANGE_TOKEN, changeToken);
+
+        session.saveDocument(model);
+        session.save();
+
+        getSavePolicy().saved(model.getId(), version);
+        if (version) {
+            saveVersions.inc();
+        }
+
+        // Document Server still serves the saved file, so the new thumbnail is rendered from its url
+        getConversionManager().scheduleThumbnail(session.getRepositoryName(), model.getId(),
+                session.getPrincipal().getName(), saved.getDigest(), getUtils().getFileExtension(saved.getFilename()), url);
+    }
+
+    private VersioningOption getVersioningOption(String value) {
+        try {
+            return VersioningOption.valueOf(value.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown versioning option " + value + ", using MINOR");
+            return VersioningOption.MINOR;
+        }
+    }
+
+    private Blob getBlob(DocumentModel model, String xpath) {
+        Blob blob = (Blob) model.getPropertyValue(xpath);
+        if (blob == null) {
+            BlobHolder bh = model.getAdapter(BlobHolder.class);
+            if (bh != null) {
+                blob = bh.getBlob();
+            }
+        }
+        return blob;
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    private ConversionManager getConversionManager() {
+        if (conversionManager == null) {
+            conversionManager = Framework.getService(ConversionManager.class);
+        }
+        return conversionManager;
+    }
+
+    private DownloadManager getDownloadManager() {
+        if (downloadManager == null) {
+            downloadManager = Framework.getService(DownloadManager.class);
+        }
+        return downloadManager;
+    }
+
+    private SessionRegistry getSessionRegistry() {
+        if (sessionRegistry == null) {
+            sessionRegistry = Framework.getService(SessionRegistry.class);
+        }
+        return sessionRegistry;
+    }
+
+    private Utils getUtils() {
+        if (utils == null) {
+            utils = Framework.getService(Utils.class);
+        }
+        return utils;
+    }
+}
@@ -0,0 +1,32 @@
+package org.onlyoffice.utils;
+
+public class CallbackRejectedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final int TOO_MANY_REQUESTS = 429;
+
+    public static final int SERVICE_UNAVAILABLE = 503;
+
+    private final long retryAfter;
+
+    private final int status;
+
+    public CallbackRejectedException(String message, long retryAfter) {
+        this(message, retryAfter, SERVICE_UNAVAILABLE);
+    }
+
+    public CallbackRejectedException(String message, long retryAfter, int status) {
+        super(message);
+        this.retryAfter = retryAfter;
+        this.status = status;
+    }
+
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+}
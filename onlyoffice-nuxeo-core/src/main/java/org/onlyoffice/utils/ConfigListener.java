@@ -0,0 +1,8 @@
+package org.onlyoffice.utils;
+
+/**
+ * Notified after the ONLYOFFICE settings were reloaded with different values.
+ */
+public interface ConfigListener {
+    public void configChanged(ConfigSnapshot previous, ConfigSnapshot current);
+}
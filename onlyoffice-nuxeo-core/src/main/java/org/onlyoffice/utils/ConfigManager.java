@@ -1,6 +1,73 @@
 package org.onlyoffice.utils;
 
+import java.util.Set;
+
 public interface ConfigManager {
     public String getJwtSecret();
+    public Long getJwtLeeway();
     public String getDocServUrl();
+    public Integer getDownloadConnectTimeout();
+    public Integer getDownloadReadTimeout();
+    public Long getDownloadMaxSize();
+    public Integer getDownloadRetries();
+    public Long getDownloadRetryDelay();
+    public Integer getHttpPoolSize();
+    public Boolean isCallbackAsync();
+    public Integer getCallbackQueueSize();
+    public Integer getCallbackConcurrency();
+    public Integer getCallbackReserved();
+    public Integer getCallbackDocumentConcurrency();
+    public Long getCallbackWait();
+    public Double getCallbackRate();
+    public Double getCallbackBurst();
+    public Long getTokenTtl();
+    public Long getTokenMaxAge();
+    public Integer getTokenTimeout();
+    public Integer getTokenCacheSize();
+    public Long getSessionTimeout();
+    public String getSessionStore();
+    public String getSessionStoreName();
+    public Long getDedupWindow();
+    public Integer getDedupSize();
+    public Long getSaveCoalesceWindow();
+    public Integer getVersionSaves();
+    public Long getVersionInterval();
+    public String getSaveVersioning();
+    public Integer getSavePolicySize();
+    public Boolean isForcesaveEnabled();
+    public String getForcesaveVersioning();
+    public Set<String> getConvertFormats();
+    public Boolean isConvertOnUpload();
+    public Integer getConvertConcurrency();
+    public Long getConvertTimeout();
+    public Long getConvertPollInterval();
+    public String getConvertCacheDir();
+    public Long getConvertCacheSize();
+    public Boolean isThumbnailEnabled();
+    public Integer getThumbnailSize();
+    public String getThumbnailCacheDir();
+    public Long getThumbnailCacheSize();
+    public Boolean isHealthEnabled();
+    public Long getHealthInterval();
+    public Integer getHealthTimeout();
+    public Integer getHealthFailures();
+    public Long getHealthSlow();
+
+    /**
+     * Returns the settings in effect, which never change once read.
+     */
+    public ConfigSnapshot getSnapshot();
+
+    /**
+     * Reads the settings again and notifies the listeners when they changed.
+     */
+    public ConfigSnapshot reload();
+
+    /**
+     * Reloads the settings on this node and asks the other nodes of the cluster to reload theirs.
+     */
+    public ConfigSnapshot reloadAll();
+
+    public void addListener(ConfigListener listener);
+    public void removeListener(ConfigListener listener);
 }
@@ -1,28 +1,384 @@
 package org.onlyoffice.utils;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.BiConsumer;
+
+import org.nuxeo.common.Environment;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.pubsub.PubSubService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class ConfigManagerImpl extends DefaultComponent implements ConfigManager {
 
-    private static final String JWT_SECRET = "onlyoffice.jwt.secret";
-    private static final String DOCSERV_URL = "onlyoffice.docserv.url";
+    private static final Logger logger = LoggerFactory.getLogger(ConfigManagerImpl.class);
+
+    private static final String OVERRIDES_FILE = "onlyoffice.properties";
+
+    static final String RELOAD_TOPIC = "onlyoffice-config-reload";
+
+    private final List<ConfigListener> listeners = new CopyOnWriteArrayList<ConfigListener>();
+
+    // the publishing node receives its own reload requests as well
+    private final String nodeId = UUID.randomUUID().toString();
+
+    private final BiConsumer<String, byte[]> reloadSubscriber = this::reloadRequested;
+
+    private volatile ConfigSnapshot snapshot;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.registerSubscriber(RELOAD_TOPIC, reloadSubscriber);
+        }
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.unregisterSubscriber(RELOAD_TOPIC, reloadSubscriber);
+        }
+        super.stop(context);
+    }
 
     @Override
     public String getJwtSecret() {
-        return getProp(JWT_SECRET, null);
+        return getSnapshot().getJwtSecret();
+    }
+
+    @Override
+    public Long getJwtLeeway() {
+        return getSnapshot().getJwtLeeway();
     }
 
     @Override
     public String getDocServUrl() {
-        return appendSlash(getProp(DOCSERV_URL, "http://127.0.0.1/"));
+        return getSnapshot().getDocServUrl();
+    }
+
+    @Override
+    public Integer getDownloadConnectTimeout() {
+        return getSnapshot().getDownloadConnectTimeout();
+    }
+
+    @Override
+    public Integer getDownloadReadTimeout() {
+        return getSnapshot().getDownloadReadTimeout();
+    }
+
+    @Override
+    public Long getDownloadMaxSize() {
+        return getSnapshot().getDownloadMaxSize();
+    }
+
+    @Override
+    public Integer getDownloadRetries() {
+        return getSnapshot().getDownloadRetries();
+    }
+
+    @Override
+    public Long getDownloadRetryDelay() {
+        return getSnapshot().getDownloadRetryDelay();
+    }
+
+    @Override
+    public Integer getHttpPoolSize() {
+        return getSnapshot().getHttpPoolSize();
+    }
+
+    @Override
+    public Boolean isCallbackAsync() {
+        return getSnapshot().isCallbackAsync();
+    }
+
+    @Override
+    public Integer getCallbackQueueSize() {
+        return getSnapshot().getCallbackQueueSize();
+    }
+
+    @Override
+    public Integer getCallbackConcurrency() {
+        return getSnapshot().getCallbackConcurrency();
+    }
+
+    @Override
+    public Integer getCallbackReserved() {
+        return getSnapshot().getCallbackReserved();
+    }
+
+    @Override
+    public Integer getCallbackDocumentConcurrency() {
+        return getSnapshot().getCallbackDocumentConcurrency();
+    }
+
+    @Override
+    public Long getCallbackWait() {
+        return getSnapshot().getCallbackWait();
+    }
+
+    @Override
+    public Double getCallbackRate() {
+        return getSnapshot().getCallbackRate();
+    }
+
+    @Override
+    public Double getCallbackBurst() {
+        return getSnapshot().getCallbackBurst();
+    }
+
+    @Override
+    public Long getTokenTtl() {
+        return getSnapshot().getTokenTtl();
+    }
+
+    @Override
+    public Long getTokenMaxAge() {
+        return getSnapshot().getTokenMaxAge();
+    }
+
+    @Override
+    public Integer getTokenTimeout() {
+        return getSnapshot().getTokenTimeout();
+    }
+
+    @Override
+    public Integer getTokenCacheSize() {
+        return getSnapshot().getTokenCacheSize();
+    }
+
+    @Override
+    public Long getSessionTimeout() {
+        return getSnapshot().getSessionTimeout();
+    }
+
+    @Override
+    public String getSessionStore() {
+        return getSnapshot().getSessionStore();
+    }
+
+    @Override
+    public String getSessionStoreName() {
+        return getSnapshot().getSessionStoreName();
+    }
+
+    @Override
+    public Long getDedupWindow() {
+        return getSnapshot().getDedupWindow();
+    }
+
+    @Override
+    public Integer getDedupSize() {
+        return getSnapshot().getDedupSize();
+    }
+
+    @Override
+    public Long getSaveCoalesceWindow() {
+        return getSnapshot().getSaveCoalesceWindow();
+    }
+
+    @Override
+    public Integer getVersionSaves() {
+        return getSnapshot().getVersionSaves();
+    }
+
+    @Override
+    public Long getVersionInterval() {
+        return getSnapshot().getVersionInterval();
+    }
+
+    @Override
+    public String getSaveVersioning() {
+        return getSnapshot().getSaveVersioning();
+    }
+
+    @Override
+    public Integer getSavePolicySize() {
+        return getSnapshot().getSavePolicySize();
+    }
+
+    @Override
+    public Boolean isForcesaveEnabled() {
+        return getSnapshot().isForcesaveEnabled();
+    }
+
+    @Override
+    public String getForcesaveVersioning() {
+        return getSnapshot().getForcesaveVersioning();
+    }
+
+    @Override
+    public Set<String> getConvertFormats() {
+        return getSnapshot().getConvertFormats();
+    }
+
+    @Override
+    public Boolean isConvertOnUpload() {
+        return getSnapshot().isConvertOnUpload();
+    }
+
+    @Override
+    public Integer getConvertConcurrency() {
+        return getSnapshot().getConvertConcurrency();
+    }
+
+    @Override
+    public Long getConvertTimeout() {
+        return getSnapshot().getConvertTimeout();
+    }
+
+    @Override
+    public Long getConvertPollInterval() {
+        return getSnapshot().getConvertPollInterval();
+    }
+
+    @Override
+    public String getConvertCacheDir() {
+        return getSnapshot().getConvertCacheDir();
+    }
+
+    @Override
+    public Long getConvertCacheSize() {
+        return getSnapshot().getConvertCacheSize();
+    }
+
+    @Override
+    public Boolean isThumbnailEnabled() {
+        return getSnapshot().isThumbnailEnabled();
+    }
+
+    @Override
+    public Integer getThumbnailSize() {
+        return getSnapshot().getThumbnailSize();
+    }
+
+    @Override
+    public String getThumbnailCacheDir() {
+        return getSnapshot().getThumbnailCacheDir();
+    }
+
+    @Override
+    public Long getThumbnailCacheSize() {
+        return getSnapshot().getThumbnailCacheSize();
+    }
+
+    @Override
+    public Boolean isHealthEnabled() {
+        return getSnapshot().isHealthEnabled();
+    }
+
+    @Override
+    public Long getHealthInterval() {
+        return getSnapshot().getHealthInterval();
+    }
+
+    @Override
+    public Integer getHealthTimeout() {
+        return getSnapshot().getHealthTimeout();
+    }
+
+    @Override
+    public Integer getHealthFailures() {
+        return getSnapshot().getHealthFailures();
+    }
+
+    @Override
+    public Long getHealthSlow() {
+        return getSnapshot().getHealthSlow();
+    }
+
+    @Override
+    public ConfigSnapshot getSnapshot() {
+        ConfigSnapshot current = snapshot;
+        if (current == null) {
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = load();
+                }
+                current = snapshot;
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public ConfigSnapshot reload() {
+        ConfigSnapshot previous;
+        ConfigSnapshot current;
+        synchronized (this) {
+            previous = snapshot;
+            current = load();
+            snapshot = current;
+        }
+
+        if (previous != null && !previous.equals(current)) {
+            logger.info("ONLYOFFICE configuration changed");
+            for (ConfigListener listener : listeners) {
+                try {
+                    listener.configChanged(previous, current);
+                } catch (RuntimeException e) {
+                    logger.error("Error while applying the ONLYOFFICE configuration", e);
+                }
+            }
+        }
+        return current;
+    }
+
+    @Override
+    public void addListener(ConfigListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(ConfigListener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public ConfigSnapshot reloadAll() {
+        ConfigSnapshot current = reload();
+        PubSubService pubSub = Framework.getService(PubSubService.class);
+        if (pubSub != null) {
+            pubSub.publish(RELOAD_TOPIC, nodeId.getBytes(StandardCharsets.UTF_8));
+        }
+        return current;
     }
 
-    private String getProp(String key, String defValue) {
-        return Framework.getProperty(key, defValue);
+    private void reloadRequested(String topic, byte[] message) {
+        if (!nodeId.equals(new String(message, StandardCharsets.UTF_8))) {
+            logger.info("ONLYOFFICE configuration reload requested by another node");
+            reload();
+        }
     }
 
-    private String appendSlash(String url) {
-        return url.endsWith("/") ? url : url + "/";
+    /**
+     * Reads the Framework properties, overridden by the onlyoffice.properties file of the configuration directory
+     * which is read again on each reload.
+     */
+    private ConfigSnapshot load() {
+        Properties overrides = new Properties();
+        Environment env = Environment.getDefault();
+        File file = env == null || env.getConfig() == null ? null : new File(env.getConfig(), OVERRIDES_FILE);
+        if (file != null && file.isFile()) {
+            try (InputStream input = Files.newInputStream(file.toPath())) {
+                overrides.load(input);
+            } catch (IOException e) {
+                logger.warn("Could not read " + file, e);
+            }
+        }
+        return new ConfigSnapshot(key -> overrides.getProperty(key, Framework.getProperty(key)));
     }
 }
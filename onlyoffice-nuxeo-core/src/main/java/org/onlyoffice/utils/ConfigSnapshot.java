@@ -0,0 +1,496 @@
+package org.onlyoffice.utils;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.nuxeo.common.Environment;
+
+/**
+ * Immutable view of the ONLYOFFICE settings, parsed once when the configuration is loaded. Two snapshots are equal
+ * when they were read from the same raw values.
+ */
+public final class ConfigSnapshot {
+
+    public static final String JWT_SECRET = "onlyoffice.jwt.secret";
+    public static final String JWT_LEEWAY = "onlyoffice.jwt.leeway";
+    public static final String DOCSERV_URL = "onlyoffice.docserv.url";
+    public static final String DOWNLOAD_CONNECT_TIMEOUT = "onlyoffice.download.timeout.connect";
+    public static final String DOWNLOAD_READ_TIMEOUT = "onlyoffice.download.timeout.read";
+    public static final String DOWNLOAD_MAX_SIZE = "onlyoffice.download.maxsize";
+    public static final String DOWNLOAD_RETRIES = "onlyoffice.download.retries";
+    public static final String DOWNLOAD_RETRY_DELAY = "onlyoffice.download.retry.delay";
+    public static final String HTTP_POOL_SIZE = "onlyoffice.http.pool.size";
+    public static final String CALLBACK_ASYNC = "onlyoffice.callback.async";
+    public static final String CALLBACK_QUEUE_SIZE = "onlyoffice.callback.queue.size";
+    public static final String CALLBACK_CONCURRENCY = "onlyoffice.callback.concurrency";
+    public static final String CALLBACK_RESERVED = "onlyoffice.callback.concurrency.reserved";
+    public static final String CALLBACK_DOCUMENT_CONCURRENCY = "onlyoffice.callback.concurrency.document";
+    public static final String CALLBACK_WAIT = "onlyoffice.callback.wait";
+    public static final String CALLBACK_RATE = "onlyoffice.callback.rate";
+    public static final String CALLBACK_BURST = "onlyoffice.callback.burst";
+    public static final String TOKEN_TTL = "onlyoffice.token.ttl";
+    public static final String TOKEN_MAX_AGE = "onlyoffice.token.maxage";
+    public static final String TOKEN_TIMEOUT = "onlyoffice.token.timeout";
+    public static final String TOKEN_CACHE_SIZE = "onlyoffice.token.cache.size";
+    public static final String SESSION_TIMEOUT = "onlyoffice.session.timeout";
+    public static final String SESSION_STORE = "onlyoffice.session.store";
+    public static final String SESSION_STORE_NAME = "onlyoffice.session.store.name";
+    public static final String DEDUP_WINDOW = "onlyoffice.callback.dedup.window";
+    public static final String DEDUP_SIZE = "onlyoffice.callback.dedup.size";
+    public static final String SAVE_COALESCE_WINDOW = "onlyoffice.save.coalesce.window";
+    public static final String VERSION_SAVES = "onlyoffice.save.version.saves";
+    public static final String VERSION_INTERVAL = "onlyoffice.save.version.interval";
+    public static final String SAVE_VERSIONING = "onlyoffice.save.versioning";
+    public static final String SAVE_POLICY_SIZE = "onlyoffice.save.policy.size";
+    public static final String FORCESAVE = "onlyoffice.forcesave";
+    public static final String FORCESAVE_VERSIONING = "onlyoffice.forcesave.versioning";
+    public static final String CONVERT_FORMATS = "onlyoffice.convert.formats";
+    public static final String CONVERT_UPLOAD = "onlyoffice.convert.upload";
+    public static final String CONVERT_CONCURRENCY = "onlyoffice.convert.concurrency";
+    public static final String CONVERT_TIMEOUT = "onlyoffice.convert.timeout";
+    public static final String CONVERT_POLL_INTERVAL = "onlyoffice.convert.poll.interval";
+    public static final String CONVERT_CACHE_DIR = "onlyoffice.convert.cache.dir";
+    public static final String CONVERT_CACHE_SIZE = "onlyoffice.convert.cache.size";
+    public static final String THUMBNAIL_ENABLED = "onlyoffice.thumbnail.enabled";
+    public static final String THUMBNAIL_SIZE = "onlyoffice.thumbnail.size";
+    public static final String THUMBNAIL_CACHE_DIR = "onlyoffice.thumbnail.cache.dir";
+    public static final String THUMBNAIL_CACHE_SIZE = "onlyoffice.thumbnail.cache.size";
+    public static final String HEALTH_ENABLED = "onlyoffice.health.enabled";
+    public static final String HEALTH_INTERVAL = "onlyoffice.health.interval";
+    public static final String HEALTH_TIMEOUT = "onlyoffice.health.timeout";
+    public static final String HEALTH_FAILURES = "onlyoffice.health.failures";
+    public static final String HEALTH_SLOW = "onlyoffice.health.slow";
+
+    private static final String[] KEYS = {
+            JWT_SECRET,
+            JWT_LEEWAY,
+            DOCSERV_URL,
+            DOWNLOAD_CONNECT_TIMEOUT,
+            DOWNLOAD_READ_TIMEOUT,
+            DOWNLOAD_MAX_SIZE,
+            DOWNLOAD_RETRIES,
+            DOWNLOAD_RETRY_DELAY,
+            HTTP_POOL_SIZE,
+            CALLBACK_ASYNC,
+            CALLBACK_QUEUE_SIZE,
+            CALLBACK_CONCURRENCY,
+            CALLBACK_RESERVED,
+            CALLBACK_DOCUMENT_CONCURRENCY,
+            CALLBACK_WAIT,
+            CALLBACK_RATE,
+            CALLBACK_BURST,
+            TOKEN_TTL,
+            TOKEN_MAX_AGE,
+            TOKEN_TIMEOUT,
+            TOKEN_CACHE_SIZE,
+            SESSION_TIMEOUT,
+            SESSION_STORE,
+            SESSION_STORE_NAME,
+            DEDUP_WINDOW,
+            DEDUP_SIZE,
+            SAVE_COALESCE_WINDOW,
+            VERSION_SAVES,
+            VERSION_INTERVAL,
+            SAVE_VERSIONING,
+            SAVE_POLICY_SIZE,
+            FORCESAVE,
+            FORCESAVE_VERSIONING,
+            CONVERT_FORMATS,
+            CONVERT_UPLOAD,
+            CONVERT_CONCURRENCY,
+            CONVERT_TIMEOUT,
+            CONVERT_POLL_INTERVAL,
+            CONVERT_CACHE_DIR,
+            CONVERT_CACHE_SIZE,
+            THUMBNAIL_ENABLED,
+            THUMBNAIL_SIZE,
+            THUMBNAIL_CACHE_DIR,
+            THUMBNAIL_CACHE_SIZE,
+            HEALTH_ENABLED,
+            HEALTH_INTERVAL,
+            HEALTH_TIMEOUT,
+            HEALTH_FAILURES,
+            HEALTH_SLOW };
+
+    private final Map<String, String> values = new TreeMap<String, String>();
+
+    private final String jwtSecret;
+    private final Long jwtLeeway;
+    private final String docServUrl;
+    private final Integer downloadConnectTimeout;
+    private final Integer downloadReadTimeout;
+    private final Long downloadMaxSize;
+    private final Integer downloadRetries;
+    private final Long downloadRetryDelay;
+    private final Integer httpPoolSize;
+    private final Boolean callbackAsync;
+    private final Integer callbackQueueSize;
+    private final Integer callbackConcurrency;
+    private final Integer callbackReserved;
+    private final Integer callbackDocumentConcurrency;
+    private final Long callbackWait;
+    private final Double callbackRate;
+    private final Double callbackBurst;
+    private final Long tokenTtl;
+    private final Long tokenMaxAge;
+    private final Integer tokenTimeout;
+    private final Integer tokenCacheSize;
+    private final Long sessionTimeout;
+    private final String sessionStore;
+    private final String sessionStoreName;
+    private final Long dedupWindow;
+    private final Integer dedupSize;
+    private final Long saveCoalesceWindow;
+    private final Integer versionSaves;
+    private final Long versionInterval;
+    private final String saveVersioning;
+    private final Integer savePolicySize;
+    private final Boolean forcesaveEnabled;
+    private final String forcesaveVersioning;
+    private final Set<String> convertFormats;
+    private final Boolean convertOnUpload;
+    private final Integer convertConcurrency;
+    private final Long convertTimeout;
+    private final Long convertPollInterval;
+    private final String convertCacheDir;
+    private final Long convertCacheSize;
+    private final Boolean thumbnailEnabled;
+    private final Integer thumbnailSize;
+    private final String thumbnailCacheDir;
+    private final Long thumbnailCacheSize;
+    private final Boolean healthEnabled;
+    private final Long healthInterval;
+    private final Integer healthTimeout;
+    private final Integer healthFailures;
+    private final Long healthSlow;
+
+    public ConfigSnapshot(Function<String, String> properties) {
+        for (String key : KEYS) {
+            String value = properties.apply(key);
+            if (value != null) {
+                values.put(key, value);
+            }
+        }
+
+        jwtSecret = get(JWT_SECRET, null);
+        jwtLeeway = getLong(JWT_LEEWAY, 60);
+        docServUrl = appendSlash(get(DOCSERV_URL, "http://127.0.0.1/"));
+        downloadConnectTimeout = (int) getLong(DOWNLOAD_CONNECT_TIMEOUT, 10000);
+        downloadReadTimeout = (int) getLong(DOWNLOAD_READ_TIMEOUT, 60000);
+        downloadMaxSize = getLong(DOWNLOAD_MAX_SIZE, 1073741824L);
+        downloadRetries = (int) getLong(DOWNLOAD_RETRIES, 5);
+        downloadRetryDelay = getLong(DOWNLOAD_RETRY_DELAY, 1000);
+        httpPoolSize = (int) getLong(HTTP_POOL_SIZE, 20);
+        callbackAsync = Boolean.parseBoolean(get(CALLBACK_ASYNC, "false"));
+        callbackQueueSize = (int) getLong(CALLBACK_QUEUE_SIZE, 1000);
+        callbackConcurrency = (int) getLong(CALLBACK_CONCURRENCY, 16);
+        callbackReserved = (int) getLong(CALLBACK_RESERVED, 4);
+        callbackDocumentConcurrency = (int) getLong(CALLBACK_DOCUMENT_CONCURRENCY, 2);
+        callbackWait = getLong(CALLBACK_WAIT, 1000);
+        callbackRate = getDouble(CALLBACK_RATE, 0);
+        callbackBurst = getDouble(CALLBACK_BURST, 0);
+        tokenTtl = getLong(TOKEN_TTL, 60) * 60000;
+        tokenMaxAge = getLong(TOKEN_MAX_AGE, 1440) * 60000;
+        tokenTimeout = (int) getLong(TOKEN_TIMEOUT, 5000);
+        tokenCacheSize = (int) getLong(TOKEN_CACHE_SIZE, 10000);
+        sessionTimeout = getLong(SESSION_TIMEOUT, 0) * 60000;
+        sessionStore = get(SESSION_STORE, "memory").trim();
+        sessionStoreName = get(SESSION_STORE_NAME, "onlyoffice");
+        dedupWindow = getLong(DEDUP_WINDOW, 600) * 1000;
+        dedupSize = (int) getLong(DEDUP_SIZE, 10000);
+        saveCoalesceWindow = getLong(SAVE_COALESCE_WINDOW, 0) * 1000;
+        versionSaves = (int) getLong(VERSION_SAVES, 0);
+        versionInterval = getLong(VERSION_INTERVAL, 0) * 60000;
+        saveVersioning = get(SAVE_VERSIONING, "minor");
+        savePolicySize = (int) getLong(SAVE_POLICY_SIZE, 10000);
+        forcesaveEnabled = Boolean.parseBoolean(get(FORCESAVE, "false"));
+        forcesaveVersioning = get(FORCESAVE_VERSIONING, "none");
+        convertFormats = getSet(CONVERT_FORMATS);
+        convertOnUpload = Boolean.parseBoolean(get(CONVERT_UPLOAD, "false"));
+        convertConcurrency = (int) getLong(CONVERT_CONCURRENCY, 2);
+        convertTimeout = getLong(CONVERT_TIMEOUT, 120) * 1000;
+        convertPollInterval = getLong(CONVERT_POLL_INTERVAL, 1000);
+        convertCacheDir = getDir(CONVERT_CACHE_DIR, "onlyoffice/conversions");
+        convertCacheSize = getLong(CONVERT_CACHE_SIZE, 1024) * 1024 * 1024;
+        thumbnailEnabled = Boolean.parseBoolean(get(THUMBNAIL_ENABLED, "false"));
+        thumbnailSize = (int) getLong(THUMBNAIL_SIZE, 320);
+        thumbnailCacheDir = getDir(THUMBNAIL_CACHE_DIR, "onlyoffice/thumbnails");
+        thumbnailCacheSize = getLong(THUMBNAIL_CACHE_SIZE, 256) * 1024 * 1024;
+        healthEnabled = Boolean.parseBoolean(get(HEALTH_ENABLED, "true"));
+        healthInterval = getLong(HEALTH_INTERVAL, 10) * 1000;
+        healthTimeout = (int) getLong(HEALTH_TIMEOUT, 5000);
+        healthFailures = (int) getLong(HEALTH_FAILURES, 3);
+        healthSlow = getLong(HEALTH_SLOW, 2000);
+    }
+
+    public String getJwtSecret() {
+        return jwtSecret;
+    }
+
+    public Long getJwtLeeway() {
+        return jwtLeeway;
+    }
+
+    public String getDocServUrl() {
+        return docServUrl;
+    }
+
+    public Integer getDownloadConnectTimeout() {
+        return downloadConnectTimeout;
+    }
+
+    public Integer getDownloadReadTimeout() {
+        return downloadReadTimeout;
+    }
+
+    public Long getDownloadMaxSize() {
+        return downloadMaxSize;
+    }
+
+    public Integer getDownloadRetries() {
+        return downloadRetries;
+    }
+
+    public Long getDownloadRetryDelay() {
+        return downloadRetryDelay;
+    }
+
+    public Integer getHttpPoolSize() {
+        return httpPoolSize;
+    }
+
+    public Boolean isCallbackAsync() {
+        return callbackAsync;
+    }
+
+    public Integer getCallbackQueueSize() {
+        return callbackQueueSize;
+    }
+
+    public Integer getCallbackConcurrency() {
+        return callbackConcurrency;
+    }
+
+    public Integer getCallbackReserved() {
+        return callbackReserved;
+    }
+
+    public Integer getCallbackDocumentConcurrency() {
+        return callbackDocumentConcurrency;
+    }
+
+    public Long getCallbackWait() {
+        return callbackWait;
+    }
+
+    public Double getCallbackRate() {
+        return callbackRate;
+    }
+
+    public Double getCallbackBurst() {
+        return callbackBurst;
+    }
+
+    public Long getTokenTtl() {
+        return tokenTtl;
+    }
+
+    public Long getTokenMaxAge() {
+        return tokenMaxAge;
+    }
+
+    public Integer getTokenTimeout() {
+        return tokenTimeout;
+    }
+
+    public Integer getTokenCacheSize() {
+        return tokenCacheSize;
+    }
+
+    public Long getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public String getSessionStore() {
+        return sessionStore;
+    }
+
+    public String getSessionStoreName() {
+        return sessionStoreName;
+    }
+
+    public Long getDedupWindow() {
+        return dedupWindow;
+    }
+
+    public Integer getDedupSize() {
+        return dedupSize;
+    }
+
+    public Long getSaveCoalesceWindow() {
+        return saveCoalesceWindow;
+    }
+
+    public Integer getVersionSaves() {
+        return versionSaves;
+    }
+
+    public Long getVersionInterval() {
+        return versionInterval;
+    }
+
+    public String getSaveVersioning() {
+        return saveVersioning;
+    }
+
+    public Integer getSavePolicySize() {
+        return savePolicySize;
+    }
+
+    public Boolean isForcesaveEnabled() {
+        return forcesaveEnabled;
+    }
+
+    public String getForcesaveVersioning() {
+        return forcesaveVersioning;
+    }
+
+    public Set<String> getConvertFormats() {
+        return convertFormats;
+    }
+
+    public Boolean isConvertOnUpload() {
+        return convertOnUpload;
+    }
+
+    public Integer getConvertConcurrency() {
+        return convertConcurrency;
+    }
+
+    public Long getConvertTimeout() {
+        return convertTimeout;
+    }
+
+    public Long getConvertPollInterval() {
+        return convertPollInterval;
+    }
+
+    public String getConvertCacheDir() {
+        return convertCacheDir;
+    }
+
+    public Long getConvertCacheSize() {
+        return convertCacheSize;
+    }
+
+    public Boolean isThumbnailEnabled() {
+        return thumbnailEnabled;
+    }
+
+    public Integer getThumbnailSize() {
+        return thumbnailSize;
+    }
+
+    public String getThumbnailCacheDir() {
+        return thumbnailCacheDir;
+    }
+
+    public Long getThumbnailCacheSize() {
+        return thumbnailCacheSize;
+    }
+
+    public Boolean isHealthEnabled() {
+        return healthEnabled;
+    }
+
+    public Long getHealthInterval() {
+        return healthInterval;
+    }
+
+    public Integer getHealthTimeout() {
+        return healthTimeout;
+    }
+
+    public Integer getHealthFailures() {
+        return healthFailures;
+    }
+
+    public Long getHealthSlow() {
+        return healthSlow;
+    }
+
+    /**
+     * Returns the raw values this snapshot was parsed from, by property name.
+     */
+    public Map<String, String> getValues() {
+        return Collections.unmodifiableMap(values);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        return obj instanceof ConfigSnapshot && values.equals(((ConfigSnapshot) obj).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+
+    private String get(String key, String defValue) {
+        String value = values.get(key);
+        return value == null ? defValue : value;
+    }
+
+    private long getLong(String key, long defValue) {
+        String value = get(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    private double getDouble(String key, double defValue) {
+        String value = get(key, null);
+        if (value == null || value.trim().isEmpty()) {
+            return defValue;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    private Set<String> getSet(String key) {
+        Set<String> set = new HashSet<String>();
+        for (String item : get(key, "").split(",")) {
+            if (!item.trim().isEmpty()) {
+                set.add(item.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return Collections.unmodifiableSet(set);
+    }
+
+    private String getDir(String key, String defPath) {
+        String dir = get(key, null);
+        if (dir == null || dir.trim().isEmpty()) {
+            Environment env = Environment.getDefault();
+            return new File(env == null ? new File(System.getProperty("java.io.tmpdir")) : env.getData(), defPath).getPath();
+        }
+        return dir.trim();
+    }
+
+    private String appendSlash(String url) {
+        return url.endsWith("/") ? url : url + "/";
+    }
+}
@@ -0,0 +1,14 @@
+package org.onlyoffice.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+public interface ConversionManager {
+    public String getTargetExtension(String ext);
+    public File getConverted(String digest, String ext);
+    public File convert(String digest, String ext, String sourceUrl) throws IOException;
+    public void scheduleConversion(String repositoryName, String docId, String username, String digest, String ext, String sourceUrl);
+    public File getThumbnail(String digest, String ext);
+    public File createThumbnail(String digest, String ext, String sourceUrl) throws IOException;
+    public void scheduleThumbnail(String repositoryName, String docId, String username, String digest, String ext, String sourceUrl);
+}
@@ -0,0 +1,439 @@
+package org.onlyoffice.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.api.WorkManager;
+import org.nuxeo.ecm.core.work.api.WorkManager.Scheduling;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ConversionManagerImpl extends DefaultComponent implements ConversionManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConversionManagerImpl.class);
+
+    private static final String CONVERT_SERVICE = "ConvertService.ashx";
+
+    private static final String THUMBNAIL_TYPE = "png";
+
+    private static final String THUMBNAIL_MIME_TYPE = "image/png";
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Timer convertTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "convert"));
+
+    private final Counter convertFailures = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "convert", "failure"));
+
+    private final Counter cacheHits = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "convert", "cache", "hit"));
+
+    private final Counter cacheMisses = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "convert", "cache", "miss"));
+
+    private final ConcurrentHashMap<String, CompletableFuture<File>> conversions = new ConcurrentHashMap<String, CompletableFuture<File>>();
+
+    private ConfigManager config;
+    private DownloadManager downloadManager;
+    private FormatManager formatManager;
+    private HealthMonitor healthMonitor;
+    private JwtManager jwtManager;
+
+    private RenditionCache cache;
+    private RenditionCache thumbnailCache;
+    private Semaphore permits;
+    private CloseableHttpClient client;
+
+    private final ConfigListener listener = this::configChanged;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
+    @Override
+    public synchronized void deactivate(ComponentContext context) {
+        closeClient();
+        super.deactivate(context);
+    }
+
+    @Override
+    public String getTargetExtension(String ext) {
+        if (ext == null || !getConfig().getConvertFormats().contains(ext)) {
+            return null;
+        }
+        Format format = getFormatManager().getFormat(ext);
+        if (format == null) {
+            return null;
+        }
+        switch (format.getType()) {
+        case "text":
+            return "docx";
+        case "spreadsheet":
+            return "xlsx";
+        case "presentation":
+            return "pptx";
+        default:
+            return null;
+        }
+    }
+
+    @Override
+    public File getConverted(String digest, String ext) {
+        String target = getTargetExtension(ext);
+        if (digest == null || target == null) {
+            return null;
+        }
+
+        File file = getCache().get(getCacheName(digest, target));
+        if (file == null) {
+            cacheMisses.inc();
+        } else {
+            cacheHits.inc();
+        }
+        return file;
+    }
+
+    @Override
+    public File convert(String digest, String ext, String sourceUrl) throws IOException {
+        String target = getTargetExtension(ext);
+        if (target == null) {
+            throw new IllegalArgumentException("Files of type " + ext + " are not converted");
+        }
+
+        List<String> mimeTypes = getFormatManager().getFormat(target).getMimeTypes();
+        return render(getCache(), getCacheName(digest, target), ext, target,
+                mimeTypes.isEmpty() ? null : mimeTypes.get(0), null, sourceUrl);
+    }
+
+    @Override
+    public File getThumbnail(String digest, String ext) {
+        if (digest == null || !hasThumbnail(ext)) {
+            return null;
+        }
+        return getThumbnailCache().get(getThumbnailName(digest));
+    }
+
+    @Override
+    public File createThumbnail(String digest, String ext, String sourceUrl) throws IOException {
+        if (!hasThumbnail(ext)) {
+            throw new IllegalArgumentException("No thumbnail for files of type " + ext);
+        }
+
+        int size = getConfig().getThumbnailSize();
+        JSONObject thumbnail = new JSONObject();
+        try {
+            thumbnail.put("aspect", 1);
+            thumbnail.put("first", true);
+            thumbnail.put("width", size);
+            thumbnail.put("height", size);
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+        return render(getThumbnailCache(), getThumbnailName(digest), ext, THUMBNAIL_TYPE,
+                THUMBNAIL_MIME_TYPE, thumbnail, sourceUrl);
+    }
+
+    @Override
+    public void scheduleConversion(String repositoryName, String docId, String username, String digest, String ext, String sourceUrl) {
+        if (digest == null || getConverted(digest, ext) != null) {
+            return;
+        }
+        ConvertWork work = new ConvertWork(repositoryName, docId, username, digest, ext, sourceUrl, false);
+        Framework.getService(WorkManager.class).schedule(work, Scheduling.IF_NOT_SCHEDULED, true);
+    }
+
+    @Override
+    public void scheduleThumbnail(String repositoryName, String docId, String username, String digest, String ext, String sourceUrl) {
+        if (digest == null || !hasThumbnail(ext) || getThumbnail(digest, ext) != null) {
+            return;
+        }
+        ConvertWork work = new ConvertWork(repositoryName, docId, username, digest, ext, sourceUrl, true);
+        Framework.getService(WorkManager.class).schedule(work, Scheduling.IF_NOT_SCHEDULED, true);
+    }
+
+    private boolean hasThumbnail(String ext) {
+        return getConfig().isThumbnailEnabled() && ext != null && getFormatManager().getFormat(ext) != null;
+    }
+
+    private File render(RenditionCache cache, String name, String ext, String target, String mimeType,
+            JSONObject thumbnail, String sourceUrl) throws IOException {
+        File file = cache.get(name);
+        if (file != null) {
+            return file;
+        }
+
+        // concurrent requests for the same file wait for a single conversion
+        CompletableFuture<File> conversion = new CompletableFuture<File>();
+        CompletableFuture<File> running = conversions.putIfAbsent(name, conversion);
+        if (running != null) {
+            return await(running);
+        }
+
+        try {
+            file = convert(cache, name, ext, target, mimeType, thumbnail, sourceUrl);
+            conversion.complete(file);
+            return file;
+        } catch (IOException | RuntimeException e) {
+            convertFailures.inc();
+            conversion.completeExceptionally(e);
+            throw e;
+        } finally {
+            conversions.remove(name, conversion);
+        }
+    }
+
+    private File convert(RenditionCache cache, String name, String ext, String target, String mimeType,
+            JSONObject thumbnail, String sourceUrl) throws IOException {
+        if (!getHealthMonitor().isAvailable()) {
+            throw new IOException("Document Server is down, conversion skipped");
+        }
+
+        long timeout = getConfig().getConvertTimeout();
+        long pollInterval = getConfig().getConvertPollInterval();
+        long deadline = System.currentTimeMillis() + timeout;
+
+        Semaphore permits = getPermits();
+        try {
+            if (!permits.tryAcquire(timeout, TimeUnit.MILLISECONDS)) {
+                throw new IOException("Timed out waiting for a conversion slot");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+
+        Timer.Context timer = convertTimer.time();
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("async", true);
+            payload.put("filetype", ext);
+            payload.put("outputtype", target);
+            payload.put("key", DigestUtils.md5Hex(name));
+            payload.put("url", sourceUrl);
+            payload.put("title", name);
+            if (thumbnail != null) {
+                payload.put("thumbnail", thumbnail);
+            }
+            if (getJwtManager().isEnabled()) {
+                payload.put("token", getJwtManager().createToken(payload));
+            }
+
+            String fileUrl = null;
+            while (fileUrl == null) {
+                JSONObject result = post(payload);
+                int error = result.optInt("error", 0);
+                if (error != 0) {
+                    throw new IOException("Document Server could not convert the file, error " + error);
+                }
+                if (result.optBoolean("endConvert")) {
+                    fileUrl = result.getString("fileUrl");
+                } else if (System.currentTimeMillis() + pollInterval > deadline) {
+                    throw new IOException("Conversion timed out at " + result.optInt("percent") + "%");
+                } else {
+                    Thread.sleep(pollInterval);
+                }
+            }
+
+            Blob blob = getDownloadManager().download(fileUrl, mimeType, null, name);
+            try (InputStream input = blob.getStream()) {
+                File file = cache.put(name, input);
+                if (file == null) {
+                    throw new IOException("Converted file of " + blob.getLength() + " bytes is larger than the cache");
+                }
+                logger.info("Converted " + ext + " file to " + name);
+                return file;
+            }
+        } catch (IOException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (Exception e) {
+            throw new IOException(e);
+        } finally {
+            timer.stop();
+            permits.release();
+        }
+    }
+
+    private JSONObject post(JSONObject payload) throws Exception {
+        HttpPost post = new HttpPost(getConfig().getDocServUrl() + CONVERT_SERVICE);
+        post.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+        post.setEntity(new StringEntity(payload.toString(), ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = getClient().execute(post)) {
+            String body = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8);
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Document Server answered " + response.getStatusLine() + " to the conversion");
+            }
+            return new JSONObject(body);
+        }
+    }
+
+    private File await(CompletableFuture<File> conversion) throws IOException {
+        try {
+            return conversion.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+
+    private String getCacheName(String digest, String target) {
+        return DigestUtils.md5Hex(digest) + "." + target;
+    }
+
+    private String getThumbnailName(String digest) {
+        // a new size gives new names, so that the thumbnails of the previous size are evicted
+        return getCacheName(digest, getConfig().getThumbnailSize() + "." + THUMBNAIL_TYPE);
+    }
+
+    private synchronized RenditionCache getCache() {
+        if (cache == null) {
+            try {
+                cache = new RenditionCache(new File(getConfig().getConvertCacheDir()), getConfig().getConvertCacheSize());
+            } catch (IOException e) {
+                throw new NuxeoException("Could not open the conversion cache", e);
+            }
+        }
+        return cache;
+    }
+
+    private synchronized RenditionCache getThumbnailCache() {
+        if (thumbnailCache == null) {
+            try {
+                thumbnailCache = new RenditionCache(new File(getConfig().getThumbnailCacheDir()),
+                        getConfig().getThumbnailCacheSize());
+            } catch (IOException e) {
+                throw new NuxeoException("Could not open the thumbnail cache", e);
+            }
+        }
+        return thumbnailCache;
+    }
+
+    private synchronized Semaphore getPermits() {
+        if (permits == null) {
+            permits = new Semaphore(Math.max(getConfig().getConvertConcurrency(), 1), true);
+        }
+        return permits;
+    }
+
+    private synchronized CloseableHttpClient getClient() {
+        if (client == null) {
+            int connectTimeout = getConfig().getDownloadConnectTimeout();
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(connectTimeout)
+                    .setConnectionRequestTimeout(connectTimeout)
+                    .setSocketTimeout(getConfig().getDownloadReadTimeout())
+                    .build();
+            client = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+        }
+        return client;
+    }
+
+    /**
+     * Drops what was built from changed settings, running conversions finish with the previous ones.
+     */
+    private synchronized void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        if (!previous.getConvertCacheDir().equals(current.getConvertCacheDir())
+                || !previous.getConvertCacheSize().equals(current.getConvertCacheSize())) {
+            cache = null;
+        }
+        if (!previous.getThumbnailCacheDir().equals(current.getThumbnailCacheDir())
+                || !previous.getThumbnailCacheSize().equals(current.getThumbnailCacheSize())) {
+            thumbnailCache = null;
+        }
+        if (!previous.getConvertConcurrency().equals(current.getConvertConcurrency())) {
+            permits = null;
+        }
+        if (!previous.getDownloadConnectTimeout().equals(current.getDownloadConnectTimeout())
+                || !previous.getDownloadReadTimeout().equals(current.getDownloadReadTimeout())) {
+            closeClient();
+        }
+    }
+
+    private synchronized void closeClient() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warn("Error while closing HTTP client", e);
+            }
+            client = null;
+        }
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    private DownloadManager getDownloadManager() {
+        if (downloadManager == null) {
+            downloadManager = Framework.getService(DownloadManager.class);
+        }
+        return downloadManager;
+    }
+
+    private FormatManager getFormatManager() {
+        if (formatManager == null) {
+            formatManager = Framework.getService(FormatManager.class);
+        }
+        return formatManager;
+    }
+
+    private HealthMonitor getHealthMonitor() {
+        if (healthMonitor == null) {
+            healthMonitor = Framework.getService(HealthMonitor.class);
+        }
+        return healthMonitor;
+    }
+
+    private JwtManager getJwtManager() {
+        if (jwtManager == null) {
+            jwtManager = Framework.getService(JwtManager.class);
+        }
+        return jwtManager;
+    }
+}
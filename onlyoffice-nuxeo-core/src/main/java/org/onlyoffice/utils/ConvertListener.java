@@ -0,0 +1,53 @@
+package org.onlyoffice.utils;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.event.Event;
+import org.nuxeo.ecm.core.event.EventBundle;
+import org.nuxeo.ecm.core.event.PostCommitEventListener;
+import org.nuxeo.ecm.core.event.impl.DocumentEventContext;
+import org.nuxeo.runtime.api.Framework;
+
+/**
+ * Schedules the conversion of legacy formats when they are uploaded, so that the first opening is not slowed down.
+ * It runs asynchronously after the commit, so that uploads do not wait for it, and the work acquires the token
+ * needed by Document Server only when it runs.
+ */
+public class ConvertListener implements PostCommitEventListener {
+
+    @Override
+    public void handleEvent(EventBundle events) {
+        ConfigManager config = Framework.getService(ConfigManager.class);
+        if (!config.isConvertOnUpload()) {
+            return;
+        }
+
+        for (Event event : events) {
+            if (event.getContext() instanceof DocumentEventContext) {
+                handleEvent((DocumentEventContext) event.getContext());
+            }
+        }
+    }
+
+    private void handleEvent(DocumentEventContext context) {
+        DocumentModel model = context.getSourceDocument();
+        if (model == null || !model.hasSchema("file")) {
+            return;
+        }
+
+        Blob blob = (Blob) model.getPropertyValue("file:content");
+        if (blob == null || blob.getDigest() == null) {
+            return;
+        }
+
+        ConversionManager conversionManager = Framework.getService(ConversionManager.class);
+        String ext = Framework.getService(Utils.class).getFileExtension(blob.getFilename());
+        if (conversionManager.getTargetExtension(ext) == null) {
+            return;
+        }
+
+        // scheduled once per file content, whatever the number of events of the bundle
+        conversionManager.scheduleConversion(model.getRepositoryName(), model.getId(),
+                context.getPrincipal().getName(), blob.getDigest(), ext, null);
+    }
+}
@@ -0,0 +1,110 @@
+package org.onlyoffice.utils;
+
+import java.io.IOException;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Renders a conversion or a thumbnail of a file. Without a source url, the main file of the document is sent to
+ * Document Server with a token acquired when the work runs, as long as its content is still the one to convert.
+ */
+public class ConvertWork extends AbstractWork {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConvertWork.class);
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CATEGORY = "onlyofficeConvert";
+
+    public static final String QUEUE_ID = "onlyoffice-convert";
+
+    protected final String digest;
+
+    protected final String ext;
+
+    protected final String sourceUrl;
+
+    protected final boolean thumbnail;
+
+    public ConvertWork(String repositoryName, String docId, String username, String digest, String ext, String sourceUrl,
+            boolean thumbnail) {
+        super("onlyoffice-" + (thumbnail ? "thumbnail:" : "convert:") + digest);
+        setDocument(repositoryName, docId);
+        setOriginatingUsername(username);
+        this.digest = digest;
+        this.ext = ext;
+        this.sourceUrl = sourceUrl;
+        this.thumbnail = thumbnail;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return "ONLYOFFICE " + (thumbnail ? "thumbnail" : "conversion") + " of " + docId;
+    }
+
+    @Override
+    public void work() {
+        setStatus("Converting");
+        setProgress(Progress.PROGRESS_INDETERMINATE);
+
+        String url = sourceUrl == null ? getSourceUrl() : sourceUrl;
+        if (url == null) {
+            setStatus("Skipped");
+            return;
+        }
+
+        try {
+            ConversionManager conversionManager = Framework.getService(ConversionManager.class);
+            if (thumbnail) {
+                conversionManager.createThumbnail(digest, ext, url);
+            } else {
+                conversionManager.convert(digest, ext, url);
+            }
+        } catch (IOException e) {
+            throw new NuxeoException(e);
+        }
+
+        setStatus("Done");
+    }
+
+    private String getSourceUrl() {
+        String nuxeoUrl = Framework.getProperty("nuxeo.url");
+        if (nuxeoUrl == null) {
+            logger.warn("nuxeo.url is not set, " + docId + " is converted when it is first opened");
+            return null;
+        }
+
+        openSystemSession();
+        DocumentRef ref = new IdRef(docId);
+        if (!session.exists(ref)) {
+            return null;
+        }
+        DocumentModel model = session.getDocument(ref);
+        Blob blob = (Blob) model.getPropertyValue("file:content");
+        if (blob == null || !digest.equals(blob.getDigest())) {
+            // replaced since the work was scheduled, the new content has its own conversion
+            return null;
+        }
+
+        try {
+            String token = Framework.getService(TokenManager.class).getToken(originatingUsername);
+            return String.format("%s/nxfile/%s/%s/file:content/%s?token=%s", nuxeoUrl, repositoryName, docId,
+                    blob.getFilename(), token);
+        } catch (Exception e) {
+            throw new NuxeoException("Could not get a token for the conversion of " + docId, e);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package org.onlyoffice.utils;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class DedupWindow {
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>();
+
+    private final long window;
+
+    private final int maxSize;
+
+    public DedupWindow(long window, int maxSize) {
+        this.window = window;
+        this.maxSize = maxSize;
+    }
+
+    public synchronized boolean claim(String key) {
+        long now = System.currentTimeMillis();
+        evict(now);
+
+        if (entries.containsKey(key)) {
+            return false;
+        }
+
+        entries.put(key, now);
+        if (entries.size() > maxSize) {
+            Iterator<String> it = entries.keySet().iterator();
+            it.next();
+            it.remove();
+        }
+        return true;
+    }
+
+    public synchronized void release(String key) {
+        entries.remove(key);
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void evict(long now) {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (it.hasNext() && it.next().getValue() < now - window) {
+            it.remove();
+        }
+    }
+}
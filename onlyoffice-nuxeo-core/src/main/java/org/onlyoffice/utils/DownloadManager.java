@@ -0,0 +1,9 @@
+package org.onlyoffice.utils;
+
+import java.io.IOException;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+public interface DownloadManager {
+    public Blob download(String url, String mimeType, String encoding, String filename) throws IOException;
+}
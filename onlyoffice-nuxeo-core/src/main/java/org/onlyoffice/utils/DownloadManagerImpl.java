@@ -0,0 +1,404 @@
+package org.onlyoffice.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class DownloadManagerImpl extends DefaultComponent implements DownloadManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(DownloadManagerImpl.class);
+
+    private static final String DIGEST_ALGORITHM = "MD5";
+    private static final long TRANSFER_CHUNK = 1024 * 1024;
+    private static final long MAX_RETRY_DELAY = 30000;
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Timer downloadTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "download"));
+
+    private final Meter downloadBytes = registry.meter(MetricRegistry.name("nuxeo", "onlyoffice", "download", "bytes"));
+
+    private final Histogram downloadThroughput = registry.histogram(MetricRegistry.name("nuxeo", "onlyoffice", "download", "throughput"));
+
+    private final Counter downloadRetries = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "download", "retries"));
+
+    private final Counter downloadsShed = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "download", "shed"));
+
+    private final ConfigListener listener = (previous, current) -> {
+        // the next download builds a client with the new pool and timeouts
+        if (!previous.getHttpPoolSize().equals(current.getHttpPoolSize())
+                || !previous.getDownloadConnectTimeout().equals(current.getDownloadConnectTimeout())
+                || !previous.getDownloadReadTimeout().equals(current.getDownloadReadTimeout())) {
+            closeClient();
+        }
+    };
+
+    private ConfigManager config;
+    private HealthMonitor healthMonitor;
+    private volatile CloseableHttpClient client;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        closeClient();
+        super.deactivate(context);
+    }
+
+    @Override
+    public Blob download(String url, String mimeType, String encoding, String filename) throws IOException {
+        // while Document Server is down a single attempt is made, so that callbacks do not hold threads in backoff
+        boolean available = getHealthMonitor().isAvailable();
+        int retries = available ? getConfig().getDownloadRetries() : 0;
+        long start = System.nanoTime();
+
+        Blob blob = Blobs.createBlobWithExtension(getExtension(filename));
+        Transfer transfer = new Transfer(url, getDigest());
+
+        try (FileChannel target = FileChannel.open(blob.getFile().toPath(), StandardOpenOption.WRITE)) {
+            for (int attempt = 0; ; attempt++) {
+                try {
+                    transfer(transfer, target);
+                    break;
+                } catch (RetryableException e) {
+                    if (!available) {
+                        downloadsShed.inc();
+                        throw new IOException("Document Server is down, download of " + url + " not retried", e);
+                    }
+                    if (attempt >= retries) {
+                        throw new IOException("Download of " + url + " failed after " + (attempt + 1) + " attempts", e);
+                    }
+                    long delay = getBackoff(attempt);
+                    downloadRetries.inc();
+                    logger.warn("Download of " + url + " interrupted at " + transfer.size + " bytes, retrying in "
+                            + delay + " ms: " + e.getMessage());
+                    sleep(delay);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(blob.getFile().toPath());
+            throw e;
+        }
+
+        String checksum = Hex.encodeHexString(transfer.digest.digest());
+        if (transfer.expectedDigest != null && !transfer.expectedDigest.equalsIgnoreCase(checksum)) {
+            Files.deleteIfExists(blob.getFile().toPath());
+            throw new IOException("Checksum mismatch while downloading " + url + ": expected " + transfer.expectedDigest
+                    + ", got " + checksum);
+        }
+
+        blob.setMimeType(mimeType);
+        blob.setEncoding(encoding);
+        blob.setFilename(filename);
+        blob.setDigest(checksum);
+
+        long size = transfer.size;
+        long elapsed = System.nanoTime() - start;
+        downloadTimer.update(elapsed, TimeUnit.NANOSECONDS);
+        downloadBytes.mark(size);
+        downloadThroughput.update((long) (size / (Math.max(elapsed, 1) / 1e9)));
+
+        logger.debug("Downloaded " + size + " bytes from " + url);
+        return blob;
+    }
+
+    private void transfer(Transfer transfer, FileChannel target) throws IOException {
+        long maxSize = getConfig().getDownloadMaxSize();
+
+        HttpGet request = new HttpGet(transfer.url);
+        if (transfer.size > 0) {
+            request.setHeader(HttpHeaders.RANGE, "bytes=" + transfer.size + "-");
+            if (transfer.validator != null) {
+                request.setHeader(HttpHeaders.IF_RANGE, transfer.validator);
+            }
+        }
+
+        CloseableHttpResponse response;
+        try {
+            response = getClient().execute(request);
+        } catch (IOException e) {
+            throw new RetryableException(e);
+        }
+
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            HttpEntity entity = response.getEntity();
+
+            if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && transfer.size == transfer.length) {
+                return;
+            }
+            if (status >= 500 || status == HttpStatus.SC_REQUEST_TIMEOUT || status == 429) {
+                throw new RetryableException("Unexpected response " + status);
+            }
+            if (status != HttpStatus.SC_OK && status != HttpStatus.SC_PARTIAL_CONTENT || entity == null) {
+                throw new IOException("Unexpected response " + status + " while downloading " + transfer.url);
+            }
+
+            if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                long[] range = parseContentRange(response.getFirstHeader(HttpHeaders.CONTENT_RANGE));
+                if (range == null || range[0] != transfer.size) {
+                    throw new IOException("Unexpected content range while downloading " + transfer.url);
+                }
+                if (range[1] >= 0) {
+                    transfer.length = range[1];
+                }
+            } else {
+                // either the first request or the server ignored the range, start over
+                transfer.restart();
+                target.truncate(0);
+                transfer.length = entity.getContentLength();
+                transfer.validator = getValidator(response);
+                transfer.expectedDigest = getExpectedDigest(response);
+            }
+
+            if (maxSize > 0 && transfer.length > maxSize) {
+                throw new IOException("Document size " + transfer.length + " exceeds the limit of " + maxSize + " bytes");
+            }
+
+            boolean exceeded = false;
+            try (InputStream content = new DigestInputStream(entity.getContent(), transfer.digest);
+                    ReadableByteChannel source = Channels.newChannel(content)) {
+                long transferred;
+                while (!exceeded && (transferred = target.transferFrom(source, transfer.size, TRANSFER_CHUNK)) > 0) {
+                    transfer.size += transferred;
+                    if (maxSize > 0 && transfer.size > maxSize) {
+                        // do not drain the rest of the response when closing the stream
+                        request.abort();
+                        exceeded = true;
+                    }
+                }
+            } catch (IOException e) {
+                if (!exceeded) {
+                    throw new RetryableException(e);
+                }
+            }
+
+            if (exceeded) {
+                throw new IOException("Document size exceeds the limit of " + maxSize + " bytes");
+            }
+
+            if (transfer.length >= 0 && transfer.size < transfer.length) {
+                throw new RetryableException("Received " + transfer.size + " of " + transfer.length + " bytes");
+            }
+            if (transfer.length >= 0 && transfer.size > transfer.length) {
+                throw new IOException("Incomplete download: received " + transfer.size + " of " + transfer.length + " bytes");
+            }
+        } finally {
+            response.close();
+        }
+    }
+
+    private long getBackoff(int attempt) {
+        long delay = getConfig().getDownloadRetryDelay() << Math.min(attempt, 10);
+        delay = Math.min(delay, MAX_RETRY_DELAY);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private void sleep(long delay) throws IOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to retry the download");
+        }
+    }
+
+    private long[] parseContentRange(Header header) {
+        // bytes <first>-<last>/<length or *>
+        if (header == null || !header.getValue().startsWith("bytes ")) {
+            return null;
+        }
+        String value = header.getValue().substring(6).trim();
+        int dash = value.indexOf('-');
+        int slash = value.indexOf('/');
+        if (dash == -1 || slash == -1) {
+            return null;
+        }
+        try {
+            long first = Long.parseLong(value.substring(0, dash).trim());
+            String total = value.substring(slash + 1).trim();
+            return new long[] { first, "*".equals(total) ? -1 : Long.parseLong(total) };
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private String getValidator(HttpResponse response) {
+        // weak validators cannot be used to resume a range
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        if (etag != null && !etag.getValue().startsWith("W/")) {
+            return etag.getValue();
+        }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified != null ? lastModified.getValue() : null;
+    }
+
+    private String getExpectedDigest(HttpResponse response) {
+        Header header = response.getFirstHeader("Content-MD5");
+        if (header != null) {
+            try {
+                return Hex.encodeHexString(Base64.getDecoder().decode(header.getValue().trim()));
+            } catch (IllegalArgumentException e) {
+                logger.warn("Ignoring invalid Content-MD5 header " + header.getValue());
+            }
+        }
+        return null;
+    }
+
+    private CloseableHttpClient getClient() {
+        if (client == null) {
+            synchronized (this) {
+                if (client == null) {
+                    client = createClient();
+                }
+            }
+        }
+        return client;
+    }
+
+    private CloseableHttpClient createClient() {
+        int poolSize = getConfig().getHttpPoolSize();
+        int connectTimeout = getConfig().getDownloadConnectTimeout();
+
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(poolSize);
+        connectionManager.setDefaultMaxPerRoute(poolSize);
+
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(connectTimeout)
+                .setConnectionRequestTimeout(connectTimeout)
+                .setSocketTimeout(getConfig().getDownloadReadTimeout())
+                .build();
+
+        return HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(requestConfig)
+                .build();
+    }
+
+    private synchronized void closeClient() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warn("Error while closing HTTP client", e);
+            }
+            client = null;
+        }
+    }
+
+    private MessageDigest getDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private String getExtension(String filename) {
+        int dot = filename == null ? -1 : filename.lastIndexOf('.');
+        return dot == -1 ? ".tmp" : filename.substring(dot);
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    private HealthMonitor getHealthMonitor() {
+        if (healthMonitor == null) {
+            healthMonitor = Framework.getService(HealthMonitor.class);
+        }
+        return healthMonitor;
+    }
+
+    private static final class Transfer {
+
+        private final String url;
+
+        private final MessageDigest digest;
+
+        private long size;
+
+        private long length = -1;
+
+        private String validator;
+
+        private String expectedDigest;
+
+        private Transfer(String url, MessageDigest digest) {
+            this.url = url;
+            this.digest = digest;
+        }
+
+        private void restart() {
+            size = 0;
+            digest.reset();
+        }
+    }
+
+    private static final class RetryableException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private RetryableException(String message) {
+            super(message);
+        }
+
+        private RetryableException(Throwable cause) {
+            super(cause.getMessage(), cause);
+        }
+    }
+}
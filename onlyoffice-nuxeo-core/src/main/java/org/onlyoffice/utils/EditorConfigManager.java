@@ -0,0 +1,15 @@
+package org.onlyoffice.utils;
+
+import java.util.List;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.DocumentModel;
+
+public interface EditorConfigManager {
+    public static final int MAX_BATCH_SIZE = 100;
+
+    public String getConfig(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, String indexAtt, String digest) throws Exception;
+    public JSONArray getConfigs(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, List<String> indexes, List<String> digests) throws Exception;
+    public JSONObject buildConfig(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, String indexAtt, String digest, String convertedExt) throws Exception;
+}
@@ -0,0 +1,321 @@
+package org.onlyoffice.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
+import org.nuxeo.ecm.core.api.model.PropertyException;
+import org.nuxeo.ecm.core.cache.Cache;
+import org.nuxeo.ecm.core.cache.CacheService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+public class EditorConfigManagerImpl extends DefaultComponent implements EditorConfigManager {
+
+    private static final String CONFIG_CACHE = "onlyoffice-editor-config";
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Timer blobTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "blob"));
+
+    private final Timer configTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "config"));
+
+    private final Timer signTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "sign"));
+
+    private final Counter cacheHits = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "cache", "hit"));
+
+    private final Counter cacheMisses = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "cache", "miss"));
+
+    private final ConfigListener listener = (previous, current) -> {
+        // cached configs are signed with the secret and carry the forcesave setting they were built with
+        if (!Objects.equals(previous.getJwtSecret(), current.getJwtSecret())
+                || !previous.isForcesaveEnabled().equals(current.isForcesaveEnabled())) {
+            Framework.getService(CacheService.class).getCache(CONFIG_CACHE).invalidateAll();
+        }
+    };
+
+    private ConfigManager config;
+    private ConversionManager conversionManager;
+    private JwtManager jwtManager;
+    private Utils utils;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
+    @Override
+    public String getConfig(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, String indexAtt, String digest) throws Exception {
+        if (indexAtt != null && digest == null) {
+            throw new IllegalArgumentException("Digest is null");
+        }
+
+        String convertedExt = getConvertedExtension(model, user, baseUrl, token, mode, indexAtt);
+
+        Cache cache = Framework.getService(CacheService.class).getCache(CONFIG_CACHE);
+        String key = String.join("|", getUtils().getDocumentKey(model, indexAtt), String.valueOf(digest), user,
+                "edit".equals(mode) ? "edit" : "view", locale, baseUrl, token, String.valueOf(convertedExt));
+
+        String config = (String) cache.get(key);
+        if (config == null) {
+            cacheMisses.inc();
+            Timer.Context timer = configTimer.time();
+            try {
+                config = buildConfig(model, user, baseUrl, locale, token, mode, indexAtt, digest, convertedExt).toString();
+            } finally {
+                timer.stop();
+            }
+            cache.put(key, config);
+        } else {
+            cacheHits.inc();
+        }
+        return config;
+    }
+
+    /**
+     * Returns the configs of the requested attachments, or of all of them when none is requested. An attachment
+     * which cannot be opened gets an error instead of its config, so that the others are still returned.
+     */
+    @Override
+    public JSONArray getConfigs(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, List<String> indexes, List<String> digests) throws Exception {
+        JSONArray configs = new JSONArray();
+        for (Attachment attachment : getAttachments(model, indexes, digests)) {
+            JSONObject item = new JSONObject();
+            item.put("index", attachment.index);
+            item.put("digest", attachment.digest);
+            try {
+                if (attachment.index == null) {
+                    throw new IllegalArgumentException("Unknown attachment");
+                }
+                String indexAtt = String.valueOf(attachment.index);
+                item.put("config", new JSONObject(getConfig(model, user, baseUrl, locale, token, mode, indexAtt, attachment.digest)));
+            } catch (IllegalArgumentException | PropertyException e) {
+                item.put("error", e.getMessage());
+            }
+            configs.put(item);
+        }
+        return configs;
+    }
+
+    @Override
+    public JSONObject buildConfig(DocumentModel model, String user, String baseUrl, String locale, String token, String mode, String indexAtt, String digest, String convertedExt) throws Exception {
+        JSONObject responseJson = new JSONObject();
+        JSONObject documentObject = new JSONObject();
+        JSONObject editorConfigObject = new JSONObject();
+        JSONObject userObject = new JSONObject();
+        JSONObject permObject = new JSONObject();
+
+        String docId = model.getId();
+        String docTitle = "";
+        String docFilename = "";
+        String docExt = "";
+        String contentUrl = "";
+        String callbackUrl = "";
+
+        Timer.Context timer = blobTimer.time();
+        try {
+            if (indexAtt == null) {
+                docTitle = model.getTitle();
+                docFilename = model.getAdapter(BlobHolder.class).getBlob().getFilename();
+                contentUrl = getContentUrl(model, baseUrl, token, null, docFilename);
+                callbackUrl = String.format("%s/nuxeo/api/v1/onlyoffice/callback/%s?token=%s", baseUrl, docId, token);
+            } else {
+                if (digest == null) {
+                    throw new IllegalArgumentException("Digest is null");
+                }
+                Blob blob = (Blob) model.getPropertyValue("files:files/" + Integer.parseInt(indexAtt) + "/file");
+
+                if (blob == null || !digest.equals(blob.getDigest())){
+                    throw new IllegalArgumentException("Digest is incorrect");
+                }
+
+                docFilename = blob.getFilename();
+                docTitle = docFilename;
+                contentUrl = getContentUrl(model, baseUrl, token, indexAtt, docFilename);
+                callbackUrl = String.format("%s/nuxeo/api/v1/onlyoffice/callback/%s?digest=%s&index=%s&token=%s", baseUrl, docId, digest, indexAtt, token);
+            }
+        } finally {
+            timer.stop();
+        }
+
+        docExt = getUtils().getFileExtension(docFilename);
+        if (convertedExt != null) {
+            // Document Server opens the cached OOXML rendition instead of converting the file again
+            String sourceDigest = indexAtt == null ? model.getAdapter(BlobHolder.class).getBlob().getDigest() : digest;
+            contentUrl = String.format("%s/nuxeo/api/v1/onlyoffice/converted/%s?digest=%s%s&token=%s", baseUrl, docId,
+                    sourceDigest, indexAtt == null ? "" : "&index=" + indexAtt, token);
+            docExt = convertedExt;
+        }
+        Boolean toEdit = mode != null && mode.equals("edit");
+
+        responseJson.put("type", "desktop");
+        responseJson.put("width", "100%");
+        responseJson.put("height", "100%");
+        responseJson.put("documentType", getUtils().getDocumentType(docExt));
+
+        responseJson.put("document", documentObject);
+        documentObject.put("title", docTitle);
+        documentObject.put("url", contentUrl);
+        documentObject.put("fileType", docExt);
+        documentObject.put("key", getUtils().getDocumentKey(model, indexAtt));
+        documentObject.put("permissions", permObject);
+        permObject.put("edit", toEdit);
+
+        responseJson.put("editorConfig", editorConfigObject);
+        editorConfigObject.put("lang", locale);
+        editorConfigObject.put("mode", toEdit ? "edit" : "view");
+        editorConfigObject.put("callbackUrl", callbackUrl);
+        editorConfigObject.put("user", userObject);
+        userObject.put("id", user);
+        userObject.put("name", user);
+
+        if (getConfig().isForcesaveEnabled()) {
+            JSONObject customizationObject = new JSONObject();
+            customizationObject.put("forcesave", true);
+            editorConfigObject.put("customization", customizationObject);
+        }
+
+        if (getJwtManager().isEnabled()) {
+            timer = signTimer.time();
+            try {
+                responseJson.put("token", getJwtManager().createToken(responseJson));
+            } finally {
+                timer.stop();
+            }
+        }
+
+        return responseJson;
+    }
+
+    /**
+     * Returns the extension of the cached conversion of a legacy format opened for viewing, or schedules the
+     * conversion for the next opens and returns null.
+     */
+    private String getConvertedExtension(DocumentModel model, String user, String baseUrl, String token, String mode, String indexAtt) {
+        if ("edit".equals(mode) || getConfig().getConvertFormats().isEmpty()) {
+            return null;
+        }
+
+        Blob blob = indexAtt == null ? model.getAdapter(BlobHolder.class).getBlob()
+                : (Blob) model.getPropertyValue("files:files/" + Integer.parseInt(indexAtt) + "/file");
+        if (blob == null) {
+            return null;
+        }
+        String ext = getUtils().getFileExtension(blob.getFilename());
+        String target = getConversionManager().getTargetExtension(ext);
+        if (target == null) {
+            return null;
+        }
+
+        if (getConversionManager().getConverted(blob.getDigest(), ext) != null) {
+            return target;
+        }
+        getConversionManager().scheduleConversion(model.getRepositoryName(), model.getId(), user, blob.getDigest(),
+                ext, getContentUrl(model, baseUrl, token, indexAtt, blob.getFilename()));
+        return null;
+    }
+
+    private List<Attachment> getAttachments(DocumentModel model, List<String> indexes, List<String> digests) {
+        List<Attachment> attachments = new ArrayList<Attachment>();
+        List<Map<String, Serializable>> files = getFiles(model);
+
+        if (indexes.isEmpty() && digests.isEmpty()) {
+            for (int i = 0; i < files.size() && attachments.size() < MAX_BATCH_SIZE; i++) {
+                Blob blob = (Blob) files.get(i).get("file");
+                if (blob != null) {
+                    attachments.add(new Attachment(i, blob.getDigest()));
+                }
+            }
+        } else if (!indexes.isEmpty()) {
+            for (int i = 0; i < indexes.size(); i++) {
+                int index = Integer.parseInt(indexes.get(i));
+                String digest = i < digests.size() ? digests.get(i) : null;
+                if (digest == null && index >= 0 && index < files.size()) {
+                    Blob blob = (Blob) files.get(index).get("file");
+                    digest = blob == null ? null : blob.getDigest();
+                }
+                attachments.add(new Attachment(index, digest));
+            }
+        } else {
+            for (String digest : digests) {
+                attachments.add(new Attachment(getUtils().getAttachmentIndex(model, digest, null), digest));
+            }
+        }
+        return attachments;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Serializable>> getFiles(DocumentModel model) {
+        if (!model.hasSchema("files")) {
+            return Collections.<Map<String, Serializable>>emptyList();
+        }
+        return (List<Map<String, Serializable>>) model.getPropertyValue("files:files");
+    }
+
+    private String getContentUrl(DocumentModel model, String baseUrl, String token, String indexAtt, String filename) {
+        String xpath = indexAtt == null ? "file:content" : "files:files/" + indexAtt + "/file";
+        return String.format("%s/nuxeo/nxfile/%s/%s/%s/%s?token=%s", baseUrl, model.getRepositoryName(),
+                model.getId(), xpath, filename, token);
+    }
+
+    protected ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    protected ConversionManager getConversionManager() {
+        if (conversionManager == null) {
+            conversionManager = Framework.getService(ConversionManager.class);
+        }
+        return conversionManager;
+    }
+
+    protected JwtManager getJwtManager() {
+        if (jwtManager == null) {
+            jwtManager = Framework.getService(JwtManager.class);
+        }
+        return jwtManager;
+    }
+
+    protected Utils getUtils() {
+        if (utils == null) {
+            utils = Framework.getService(Utils.class);
+        }
+        return utils;
+    }
+
+    private static final class Attachment {
+
+        private final Integer index;
+
+        private final String digest;
+
+        private Attachment(Integer index, String digest) {
+            this.index = index;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package org.onlyoffice.utils;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.PropertyException;
+
+/**
+ * Last force save of a file, recorded on the document itself. Document Server keeps the key of the editing session
+ * after a force save, so the key is kept for the file as long as it is the force saved one.
+ */
+public class ForceSave {
+
+    public static final String FACET = "OnlyofficeForceSave";
+
+    private static final String PROPERTY = "onlyoffice:forcesaves";
+
+    private final String key;
+
+    private final String xpath;
+
+    private final String digest;
+
+    private final String lastSave;
+
+    public ForceSave(String key, String xpath, String digest, String lastSave) {
+        this.key = key;
+        this.xpath = xpath;
+        this.digest = digest;
+        this.lastSave = lastSave;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getXpath() {
+        return xpath;
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public String getLastSave() {
+        return lastSave;
+    }
+
+    /**
+     * Returns true when the file has not been replaced since the force save.
+     */
+    public boolean isCurrent(DocumentModel model) {
+        try {
+            Blob blob = (Blob) model.getPropertyValue(xpath);
+            return blob != null && digest != null && digest.equals(blob.getDigest());
+        } catch (PropertyException e) {
+            // the attachment was removed
+            return false;
+        }
+    }
+
+    /**
+     * Returns the last force save of the editing session with this key.
+     */
+    public static ForceSave get(DocumentModel model, String key) {
+        for (ForceSave forceSave : getAll(model)) {
+            if (forceSave.key.equals(key)) {
+                return forceSave;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the last force save of the file at this xpath, if the file has not been replaced since.
+     */
+    public static ForceSave getCurrent(DocumentModel model, String xpath) {
+        for (ForceSave forceSave : getAll(model)) {
+            if (forceSave.xpath.equals(xpath)) {
+                return forceSave.isCurrent(model) ? forceSave : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Records the force save on the document, replacing the previous one of the same file. The document still has
+     * to be saved.
+     */
+    public static void put(DocumentModel model, ForceSave forceSave) {
+        List<Map<String, Serializable>> entries = new ArrayList<Map<String, Serializable>>();
+        for (ForceSave other : getAll(model)) {
+            if (!other.xpath.equals(forceSave.xpath)) {
+                entries.add(other.toMap());
+            }
+        }
+        entries.add(forceSave.toMap());
+
+        model.addFacet(FACET);
+        model.setPropertyValue(PROPERTY, (Serializable) entries);
+    }
+
+    /**
+     * Forgets the force saves of the editing session with this key, once its final save is stored. The document
+     * still has to be saved.
+     */
+    public static void remove(DocumentModel model, String key) {
+        List<ForceSave> all = getAll(model);
+        List<Map<String, Serializable>> entries = new ArrayList<Map<String, Serializable>>();
+        for (ForceSave other : all) {
+            if (!other.key.equals(key)) {
+                entries.add(other.toMap());
+            }
+        }
+        if (entries.size() < all.size()) {
+            model.setPropertyValue(PROPERTY, (Serializable) entries);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<ForceSave> getAll(DocumentModel model) {
+        List<ForceSave> all = new ArrayList<ForceSave>();
+        if (!model.hasFacet(FACET)) {
+            return all;
+        }
+
+        List<Map<String, Serializable>> entries = (List<Map<String, Serializable>>) model.getPropertyValue(PROPERTY);
+        if (entries != null) {
+            for (Map<String, Serializable> entry : entries) {
+                all.add(new ForceSave((String) entry.get("key"), (String) entry.get("xpath"),
+                        (String) entry.get("digest"), (String) entry.get("lastsave")));
+            }
+        }
+        return all;
+    }
+
+    private Map<String, Serializable> toMap() {
+        Map<String, Serializable> entry = new HashMap<String, Serializable>();
+        entry.put("key", key);
+        entry.put("xpath", xpath);
+        entry.put("digest", digest);
+        entry.put("lastsave", lastSave);
+        return entry;
+    }
+}
@@ -0,0 +1,38 @@
+package org.onlyoffice.utils;
+
+import java.util.Collections;
+import java.util.List;
+
+public final class Format {
+
+    private final String name;
+
+    private final String type;
+
+    private final boolean editable;
+
+    private final List<String> mimeTypes;
+
+    public Format(String name, String type, boolean editable, List<String> mimeTypes) {
+        this.name = name;
+        this.type = type;
+        this.editable = editable;
+        this.mimeTypes = Collections.unmodifiableList(mimeTypes);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isEditable() {
+        return editable;
+    }
+
+    public List<String> getMimeTypes() {
+        return mimeTypes;
+    }
+}
@@ -0,0 +1,58 @@
+package org.onlyoffice.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.nuxeo.common.xmap.annotation.XNode;
+import org.nuxeo.common.xmap.annotation.XNodeList;
+import org.nuxeo.common.xmap.annotation.XObject;
+
+@XObject("format")
+public class FormatDescriptor {
+
+    @XNode("@name")
+    protected String name;
+
+    @XNode("@type")
+    protected String type;
+
+    @XNode("@edit")
+    protected boolean edit;
+
+    @XNode("@enabled")
+    protected boolean enabled = true;
+
+    @XNodeList(value = "mime", type = ArrayList.class, componentType = String.class)
+    protected List<String> mimeTypes = new ArrayList<String>();
+
+    public FormatDescriptor() {
+    }
+
+    public FormatDescriptor(String name, String type, boolean edit, String... mimeTypes) {
+        this.name = name;
+        this.type = type;
+        this.edit = edit;
+        this.mimeTypes = new ArrayList<String>(Arrays.asList(mimeTypes));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public boolean isEdit() {
+        return edit;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<String> getMimeTypes() {
+        return mimeTypes;
+    }
+}
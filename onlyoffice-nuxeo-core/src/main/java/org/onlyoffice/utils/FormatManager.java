@@ -0,0 +1,10 @@
+package org.onlyoffice.utils;
+
+import java.util.Collection;
+
+public interface FormatManager {
+    public Format getFormat(String ext);
+    public Collection<Format> getFormats();
+    public String getFormatsJson();
+    public String getFormatsVersion();
+}
@@ -0,0 +1,119 @@
+package org.onlyoffice.utils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.model.ComponentInstance;
+import org.nuxeo.runtime.model.DefaultComponent;
+
+public class FormatManagerImpl extends DefaultComponent implements FormatManager {
+
+    public static final String FORMATS_EP = "formats";
+
+    private final Map<String, FormatDescriptor> contributions = new LinkedHashMap<String, FormatDescriptor>();
+
+    private volatile Registry registry = new Registry(Collections.<FormatDescriptor>emptyList());
+
+    @Override
+    public void registerContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (FORMATS_EP.equals(extensionPoint)) {
+            FormatDescriptor descriptor = (FormatDescriptor) contribution;
+            synchronized (contributions) {
+                String name = normalize(descriptor.getName());
+                if (descriptor.isEnabled()) {
+                    contributions.put(name, descriptor);
+                } else {
+                    contributions.remove(name);
+                }
+                registry = new Registry(contributions.values());
+            }
+        }
+    }
+
+    @Override
+    public void unregisterContribution(Object contribution, String extensionPoint, ComponentInstance contributor) {
+        if (FORMATS_EP.equals(extensionPoint)) {
+            FormatDescriptor descriptor = (FormatDescriptor) contribution;
+            synchronized (contributions) {
+                contributions.remove(normalize(descriptor.getName()), descriptor);
+                registry = new Registry(contributions.values());
+            }
+        }
+    }
+
+    @Override
+    public Format getFormat(String ext) {
+        if (ext == null) {
+            return null;
+        }
+        Format format = registry.formats.get(ext);
+        return format != null ? format : registry.formats.get(normalize(ext));
+    }
+
+    @Override
+    public Collection<Format> getFormats() {
+        return registry.formats.values();
+    }
+
+    @Override
+    public String getFormatsJson() {
+        return registry.json;
+    }
+
+    @Override
+    public String getFormatsVersion() {
+        return registry.version;
+    }
+
+    private static String normalize(String ext) {
+        String name = ext.trim().toLowerCase(Locale.ROOT);
+        return name.startsWith(".") ? name.substring(1) : name;
+    }
+
+    private static final class Registry {
+
+        private final Map<String, Format> formats;
+
+        private final String json;
+
+        private final String version;
+
+        private Registry(Collection<FormatDescriptor> descriptors) {
+            Map<String, Format> map = new HashMap<String, Format>();
+            JSONArray array = new JSONArray();
+
+            try {
+                for (FormatDescriptor descriptor : descriptors) {
+                    List<String> mimeTypes = new ArrayList<String>(descriptor.getMimeTypes());
+                    Format format = new Format(normalize(descriptor.getName()), descriptor.getType(), descriptor.isEdit(), mimeTypes);
+                    map.put(format.getName(), format);
+
+                    JSONObject item = new JSONObject();
+                    item.put("name", format.getName());
+                    item.put("type", format.getType());
+                    item.put("edit", format.isEditable());
+                    item.put("mime", new JSONArray(mimeTypes));
+                    array.put(item);
+                }
+
+                this.json = new JSONObject().put("formats", array).toString();
+            } catch (JSONException e) {
+                throw new NuxeoException(e);
+            }
+
+            this.formats = Collections.unmodifiableMap(map);
+            this.version = DigestUtils.md5Hex(json);
+        }
+    }
+}
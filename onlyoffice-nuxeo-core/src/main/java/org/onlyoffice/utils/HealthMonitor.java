@@ -0,0 +1,7 @@
+package org.onlyoffice.utils;
+
+public interface HealthMonitor {
+    public HealthStatus getStatus();
+    public Boolean isAvailable();
+    public HealthStatus check();
+}
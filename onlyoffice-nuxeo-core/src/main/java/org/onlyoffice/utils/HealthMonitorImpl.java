@@ -0,0 +1,207 @@
+package org.onlyoffice.utils;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.onlyoffice.utils.HealthStatus.State;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class HealthMonitorImpl extends DefaultComponent implements HealthMonitor {
+
+    private static final Logger logger = LoggerFactory.getLogger(HealthMonitorImpl.class);
+
+    private static final String HEALTHCHECK_PATH = "healthcheck";
+
+    // weight of the last check in the latency average, so that a single slow answer does not degrade the server
+    private static final double LATENCY_WEIGHT = 0.3;
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Timer checkTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "health", "check"));
+
+    private final Counter checkFailures = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "health", "failure"));
+
+    private final ConfigListener listener = this::configChanged;
+
+    private volatile HealthStatus status = HealthStatus.UNKNOWN;
+
+    private ScheduledExecutorService prober;
+    private ScheduledFuture<?> probe;
+    private CloseableHttpClient client;
+
+    private ConfigManager config;
+
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+
+        prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "onlyoffice-health");
+            thread.setDaemon(true);
+            return thread;
+        });
+        getConfig().addListener(listener);
+        schedule();
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        prober.shutdownNow();
+        closeClient();
+
+        super.stop(context);
+    }
+
+    @Override
+    public HealthStatus getStatus() {
+        return status;
+    }
+
+    @Override
+    public Boolean isAvailable() {
+        return status.getState() != State.DOWN;
+    }
+
+    @Override
+    public synchronized HealthStatus check() {
+        if (!getConfig().isHealthEnabled()) {
+            status = HealthStatus.UNKNOWN;
+            return status;
+        }
+
+        String url = getConfig().getDocServUrl() + HEALTHCHECK_PATH;
+        String error = null;
+        long start = System.nanoTime();
+        try (CloseableHttpResponse response = getClient().execute(new HttpGet(url))) {
+            int code = response.getStatusLine().getStatusCode();
+            String body = response.getEntity() == null ? ""
+                    : EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8).trim();
+            if (code != HttpStatus.SC_OK || !"true".equalsIgnoreCase(body)) {
+                error = "Healthcheck answered " + code + " "
+                        + (body.length() > 100 ? body.substring(0, 100) + "..." : body);
+            }
+        } catch (IOException | RuntimeException e) {
+            error = e.getClass().getSimpleName() + ": " + e.getMessage();
+        }
+        long elapsed = System.nanoTime() - start;
+        checkTimer.update(elapsed, TimeUnit.NANOSECONDS);
+
+        HealthStatus previous = status;
+        HealthStatus current = error == null ? succeeded(previous, TimeUnit.NANOSECONDS.toMillis(elapsed))
+                : failed(previous, error);
+        status = current;
+
+        if (current.getState() != previous.getState()) {
+            if (current.getState() == State.DOWN) {
+                logger.warn("Document Server at " + url + " is down after " + current.getFailures()
+                        + " failed checks: " + error);
+            } else {
+                logger.info("Document Server at " + url + " is " + current.getState());
+            }
+        }
+        return current;
+    }
+
+    private HealthStatus succeeded(HealthStatus previous, long latency) {
+        // the average restarts when the server comes back
+        long average = previous.getLatency() < 0 || previous.getState() == State.DOWN ? latency
+                : Math.round(previous.getLatency() * (1 - LATENCY_WEIGHT) + latency * LATENCY_WEIGHT);
+        State state = average > getConfig().getHealthSlow() ? State.DEGRADED : State.UP;
+        return new HealthStatus(state, average, 0, System.currentTimeMillis(), null);
+    }
+
+    private HealthStatus failed(HealthStatus previous, String error) {
+        checkFailures.inc();
+        int failures = previous.getFailures() + 1;
+        // the circuit stays open until a check succeeds, the checks being the only calls let through
+        State state = failures >= getConfig().getHealthFailures() ? State.DOWN : previous.getState();
+        return new HealthStatus(state, previous.getLatency(), failures, System.currentTimeMillis(), error);
+    }
+
+    private void probe() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            logger.error("Error while checking Document Server health", e);
+        }
+    }
+
+    private synchronized void schedule() {
+        if (probe != null) {
+            probe.cancel(false);
+            probe = null;
+        }
+        if (getConfig().isHealthEnabled()) {
+            long interval = Math.max(getConfig().getHealthInterval(), 1000);
+            probe = prober.scheduleWithFixedDelay(this::probe, 0, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized void configChanged(ConfigSnapshot previous, ConfigSnapshot current) {
+        if (!previous.getDocServUrl().equals(current.getDocServUrl())
+                || !previous.isHealthEnabled().equals(current.isHealthEnabled())) {
+            // the checks of another server say nothing about the new one
+            status = HealthStatus.UNKNOWN;
+        }
+        if (!previous.getHealthTimeout().equals(current.getHealthTimeout())) {
+            closeClient();
+        }
+        if (!previous.getDocServUrl().equals(current.getDocServUrl())
+                || !previous.isHealthEnabled().equals(current.isHealthEnabled())
+                || !previous.getHealthInterval().equals(current.getHealthInterval())) {
+            schedule();
+        }
+    }
+
+    private synchronized CloseableHttpClient getClient() {
+        if (client == null) {
+            int timeout = getConfig().getHealthTimeout();
+            RequestConfig requestConfig = RequestConfig.custom()
+                    .setConnectTimeout(timeout)
+                    .setConnectionRequestTimeout(timeout)
+                    .setSocketTimeout(timeout)
+                    .build();
+            client = HttpClients.custom().setDefaultRequestConfig(requestConfig).build();
+        }
+        return client;
+    }
+
+    private synchronized void closeClient() {
+        if (client != null) {
+            try {
+                client.close();
+            } catch (IOException e) {
+                logger.warn("Error while closing HTTP client", e);
+            }
+            client = null;
+        }
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+}
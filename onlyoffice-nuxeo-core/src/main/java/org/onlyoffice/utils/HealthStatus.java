@@ -0,0 +1,60 @@
+package org.onlyoffice.utils;
+
+/**
+ * Result of the last health checks of Document Server.
+ */
+public final class HealthStatus {
+
+    public enum State {
+        /** Not checked yet, or checks are disabled. */
+        UNKNOWN,
+        UP,
+        /** Answering, but slower than onlyoffice.health.slow. */
+        DEGRADED,
+        /** The circuit is open after too many failed checks. */
+        DOWN
+    }
+
+    public static final HealthStatus UNKNOWN = new HealthStatus(State.UNKNOWN, -1, 0, 0, null);
+
+    private final State state;
+
+    private final long latency;
+
+    private final int failures;
+
+    private final long checked;
+
+    private final String error;
+
+    public HealthStatus(State state, long latency, int failures, long checked, String error) {
+        this.state = state;
+        this.latency = latency;
+        this.failures = failures;
+        this.checked = checked;
+        this.error = error;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Returns the moving average of the check latency in milliseconds, or -1 before the first successful check.
+     */
+    public long getLatency() {
+        return latency;
+    }
+
+    public int getFailures() {
+        return failures;
+    }
+
+    public long getChecked() {
+        return checked;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
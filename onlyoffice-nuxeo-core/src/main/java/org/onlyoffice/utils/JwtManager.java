@@ -6,4 +6,5 @@ public interface JwtManager {
     public Boolean isEnabled();
     public String createToken(JSONObject payload) throws Exception;
     public Boolean verify(String token);
+    public JSONObject verifyAndDecode(String token);
 }
@@ -1,80 +1,216 @@
 package org.onlyoffice.utils;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Base64;
+import java.util.Base64.Decoder;
 import java.util.Base64.Encoder;
+import java.util.Objects;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
 import org.json.JSONObject;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.nuxeo.runtime.model.ComponentContext;
 import org.nuxeo.runtime.model.DefaultComponent;
 
 public class JwtManagerImpl extends DefaultComponent implements JwtManager {
 
+    private static final String ALGORITHM = "HmacSHA256";
+
+    private static final Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+
+    private static final Decoder DECODER = Base64.getUrlDecoder();
+
+    private static final byte[] HEADER = ENCODER.encode("{\"alg\":\"HS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+
+    private static final int HASH_LENGTH = 43;
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private final Counter verifyFailures = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "jwt", "verify", "failure"));
+
+    private final ThreadLocal<Hasher> hashers = new ThreadLocal<Hasher>();
+
+    private volatile Key key;
+
+    private final ConfigListener listener = (previous, current) -> {
+        if (!Objects.equals(previous.getJwtSecret(), current.getJwtSecret())) {
+            synchronized (this) {
+                key = new Key(current.getJwtSecret());
+            }
+        }
+    };
+
     private ConfigManager config;
 
+    @Override
+    public void start(ComponentContext context) {
+        super.start(context);
+        getConfig().addListener(listener);
+    }
+
+    @Override
+    public void stop(ComponentContext context) throws InterruptedException {
+        getConfig().removeListener(listener);
+        super.stop(context);
+    }
+
     @Override
     public Boolean isEnabled() {
-        getConfig();
-        String secret = getConfig().getJwtSecret();
-        return secret != null && !secret.isEmpty();
+        return getKey().spec != null;
     }
 
     @Override
     public String createToken(JSONObject payload) throws Exception {
-        JSONObject header = new JSONObject();
-        header.put("alg", "HS256");
-        header.put("typ", "JWT");
+        byte[] encPayload = ENCODER.encode(payload.toString().getBytes(StandardCharsets.UTF_8));
+
+        byte[] token = new byte[HEADER.length + encPayload.length + HASH_LENGTH + 2];
+        System.arraycopy(HEADER, 0, token, 0, HEADER.length);
+        token[HEADER.length] = '.';
+        System.arraycopy(encPayload, 0, token, HEADER.length + 1, encPayload.length);
 
-        Encoder enc = Base64.getUrlEncoder();
+        int signed = HEADER.length + encPayload.length + 1;
+        Mac hasher = getHasher();
+        hasher.update(token, 0, signed);
+        byte[] hash = ENCODER.encode(hasher.doFinal());
 
-        String encHeader = enc.encodeToString(header.toString().getBytes("UTF-8")).replace("=", "");
-        String encPayload = enc.encodeToString(payload.toString().getBytes("UTF-8")).replace("=", "");
-        String hash = calculateHash(encHeader, encPayload);
+        token[signed] = '.';
+        System.arraycopy(hash, 0, token, signed + 1, hash.length);
 
-        return encHeader + "." + encPayload + "." + hash;
+        return new String(token, StandardCharsets.US_ASCII);
     }
 
     @Override
     public Boolean verify(String token) {
-        if (!isEnabled()) return false;
+        return verifyAndDecode(token) != null;
+    }
 
-        String[] jwt = token.split("\\.");
-        if (jwt.length != 3) {
-            return false;
+    @Override
+    public JSONObject verifyAndDecode(String token) {
+        JSONObject claims = decode(token);
+        if (claims == null) {
+            verifyFailures.inc();
+        }
+        return claims;
+    }
+
+    private JSONObject decode(String token) {
+        if (token == null || !isEnabled()) return null;
+
+        int first = token.indexOf('.');
+        int second = first == -1 ? -1 : token.indexOf('.', first + 1);
+        if (second == -1 || token.indexOf('.', second + 1) != -1) {
+            return null;
         }
 
         try {
-            String hash = calculateHash(jwt[0], jwt[1]);
-            if (!hash.equals(jwt[2])) return false;
+            byte[] bytes = token.getBytes(StandardCharsets.US_ASCII);
+            Mac hasher = getHasher();
+            hasher.update(bytes, 0, second);
+            byte[] hash = ENCODER.encode(hasher.doFinal());
+
+            if (!isEqual(hash, bytes, second + 1)) {
+                return null;
+            }
+
+            ByteBuffer payload = DECODER.decode(ByteBuffer.wrap(bytes, first + 1, second - first - 1));
+            JSONObject claims = new JSONObject(
+                    new String(payload.array(), payload.arrayOffset(), payload.remaining(), StandardCharsets.UTF_8));
+
+            return isValid(claims) ? claims : null;
         } catch(Exception ex) {
-            return false;
+            return null;
         }
+    }
 
+    private boolean isValid(JSONObject claims) {
+        long now = System.currentTimeMillis() / 1000;
+        long leeway = getConfig().getJwtLeeway();
+        if (claims.has("exp") && claims.optLong("exp") + leeway < now) {
+            return false;
+        }
+        if (claims.has("nbf") && claims.optLong("nbf") - leeway > now) {
+            return false;
+        }
+        if (claims.has("iat") && claims.optLong("iat") - leeway > now) {
+            return false;
+        }
         return true;
     }
 
-    private String calculateHash(String header, String payload) throws Exception {
-        Mac hasher;
-        hasher = getHasher();
-        return Base64.getUrlEncoder().encodeToString(hasher.doFinal((header + "." + payload).getBytes("UTF-8"))).replace("=", "");
+    private boolean isEqual(byte[] expected, byte[] token, int offset) {
+        if (token.length - offset != expected.length) {
+            return false;
+        }
+        int result = 0;
+        for (int i = 0; i < expected.length; i++) {
+            result |= expected[i] ^ token[offset + i];
+        }
+        return result == 0;
     }
 
-    private Mac getHasher() throws Exception {
-        String jwts = getConfig().getJwtSecret();
+    /**
+     * Returns the key of the current secret, derived once and replaced when the configuration changes it.
+     */
+    private Key getKey() {
+        Key current = key;
+        if (current == null) {
+            synchronized (this) {
+                if (key == null) {
+                    key = new Key(getConfig().getJwtSecret());
+                }
+                current = key;
+            }
+        }
+        return current;
+    }
 
-        Mac sha256 = Mac.getInstance("HmacSHA256");
-        SecretKeySpec secret_key = new SecretKeySpec(jwts.getBytes("UTF-8"), "HmacSHA256");
-        sha256.init(secret_key);
+    private Mac getHasher() throws Exception {
+        Key key = getKey();
+
+        Hasher hasher = hashers.get();
+        if (hasher == null || hasher.key != key) {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key.spec);
+            hasher = new Hasher(key, mac);
+            hashers.set(hasher);
+        }
 
-        return sha256;
+        return hasher.mac;
     }
 
-    private ConfigManager getConfig() {
+    protected ConfigManager getConfig() {
         if (config == null) {
             config = Framework.getService(ConfigManager.class);
         }
         return config;
     }
+
+    private static final class Key {
+
+        private final SecretKeySpec spec;
+
+        private Key(String secret) {
+            this.spec = secret == null || secret.isEmpty() ? null
+                    : new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        }
+    }
+
+    private static final class Hasher {
+
+        private final Key key;
+
+        private final Mac mac;
+
+        private Hasher(Key key, Mac mac) {
+            this.key = key;
+            this.mac = mac;
+        }
+    }
 }
@@ -0,0 +1,252 @@
+package org.onlyoffice.utils;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the editing sessions in a Nuxeo key/value store shared by the nodes of a cluster. Session entries expire
+ * after the session timeout unless refreshed, and the sessions of a document are updated with compare-and-set, so
+ * that exactly one node sees the first join and the last leave of a document. Each document entry also holds the
+ * time of its last callback, and the documents are listed under a shared index key, so that the cleaner of any node
+ * can find the documents left without callbacks and release them once. Retried callbacks are claimed in the same
+ * store, so that a retry handled by another node is recognized as well.
+ */
+public class KeyValueSessionStore implements SessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(KeyValueSessionStore.class);
+
+    private static final String SESSION_PREFIX = "onlyoffice:session:";
+
+    private static final String DOCUMENT_PREFIX = "onlyoffice:document:";
+
+    private static final String DOCUMENTS_KEY = "onlyoffice:documents";
+
+    private static final String LOCK_PREFIX = "onlyoffice:lock:";
+
+    private static final String CALLBACK_PREFIX = "onlyoffice:callback:";
+
+    private static final int MAX_ATTEMPTS = 100;
+
+    private final KeyValueStore store;
+
+    private final long ttl;
+
+    public KeyValueSessionStore(KeyValueStore store, long timeout) {
+        this.store = store;
+        // without a timeout the sessions are kept until their document is closed
+        this.ttl = timeout > 0 ? Math.max(timeout / 1000, 1) : 0;
+    }
+
+    @Override
+    public Boolean join(String docId, String key, Collection<String> users) {
+        // the session is written before its key, so that other nodes do not drop the key as stale
+        store.put(SESSION_PREFIX + key, String.join("\n", users), ttl);
+
+        String documentKey = DOCUMENT_PREFIX + docId;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String current = store.getString(documentKey);
+            Set<String> keys = getLiveKeys(current);
+            boolean joined = !keys.add(key);
+            if (store.compareAndSet(documentKey, current, toDocument(keys))) {
+                // indexed after the document is written, see unindex
+                index(docId);
+                return !joined && keys.size() == 1;
+            }
+        }
+        throw new NuxeoException("Could not join the editing sessions of document " + docId);
+    }
+
+    @Override
+    public Boolean leave(String docId, String key) {
+        store.put(SESSION_PREFIX + key, (String) null);
+
+        String documentKey = DOCUMENT_PREFIX + docId;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String current = store.getString(documentKey);
+            if (current == null) {
+                return true;
+            }
+
+            Set<String> keys = getLiveKeys(current);
+            String value = keys.isEmpty() ? null : toDocument(keys);
+            if (store.compareAndSet(documentKey, current, value)) {
+                return keys.isEmpty();
+            }
+        }
+        throw new NuxeoException("Could not leave the editing sessions of document " + docId);
+    }
+
+    @Override
+    public void touch(String docId, String key) {
+        String users = store.getString(SESSION_PREFIX + key);
+        if (users == null) {
+            return;
+        }
+        store.put(SESSION_PREFIX + key, users, ttl);
+
+        String documentKey = DOCUMENT_PREFIX + docId;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String current = store.getString(documentKey);
+            Set<String> keys = getKeys(current);
+            if (!keys.contains(key) || store.compareAndSet(documentKey, current, toDocument(keys))) {
+                return;
+            }
+        }
+        logger.warn("Could not refresh the editing sessions of document " + docId);
+    }
+
+    @Override
+    public void putLock(String docId, String lock) {
+        store.put(LOCK_PREFIX + docId, lock);
+    }
+
+    @Override
+    public String getLock(String docId) {
+        return store.getString(LOCK_PREFIX + docId);
+    }
+
+    @Override
+    public void removeLock(String docId) {
+        store.put(LOCK_PREFIX + docId, (String) null);
+    }
+
+    @Override
+    public Collection<String> getParticipants(String key) {
+        String users = store.getString(SESSION_PREFIX + key);
+        if (users == null || users.isEmpty()) {
+            return Collections.<String>emptySet();
+        }
+        return Collections.unmodifiableSet(new LinkedHashSet<String>(Arrays.asList(users.split("\n"))));
+    }
+
+    @Override
+    public Integer getSessionCount() {
+        // the keys of a key/value store cannot be listed
+        return null;
+    }
+
+    /**
+     * Releases the documents without any callback for longer than the timeout. The compare-and-set on the document
+     * entry makes a single node release each of them, and the documents already left are dropped from the index.
+     */
+    @Override
+    public Collection<String> cleanup(long timeout) {
+        long expired = System.currentTimeMillis() - timeout;
+        Set<String> released = new HashSet<String>();
+        Set<String> dropped = new HashSet<String>();
+
+        for (String docId : getIndex(store.getString(DOCUMENTS_KEY))) {
+            String documentKey = DOCUMENT_PREFIX + docId;
+            String current = store.getString(documentKey);
+            if (current == null) {
+                dropped.add(docId);
+            } else if (getLastSeen(current) < expired && store.compareAndSet(documentKey, current, null)) {
+                for (String key : getKeys(current)) {
+                    store.put(SESSION_PREFIX + key, (String) null);
+                }
+                dropped.add(docId);
+                released.add(docId);
+                logger.debug("Dropped stale editing sessions of document " + docId);
+            }
+        }
+
+        if (!dropped.isEmpty()) {
+            unindex(dropped);
+        }
+        return released;
+    }
+
+    @Override
+    public Boolean claim(String key, long window) {
+        return store.compareAndSet(CALLBACK_PREFIX + key, null, "1", Math.max(window / 1000, 1));
+    }
+
+    @Override
+    public void release(String key) {
+        store.put(CALLBACK_PREFIX + key, (String) null);
+    }
+
+    private void index(String docId) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String current = store.getString(DOCUMENTS_KEY);
+            Set<String> docIds = getIndex(current);
+            if (!docIds.add(docId) || store.compareAndSet(DOCUMENTS_KEY, current, String.join(",", docIds))) {
+                return;
+            }
+        }
+        throw new NuxeoException("Could not index the editing sessions of document " + docId);
+    }
+
+    private void unindex(Set<String> docIds) {
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            String current = store.getString(DOCUMENTS_KEY);
+            Set<String> indexed = getIndex(current);
+            indexed.removeAll(docIds);
+            String value = indexed.isEmpty() ? null : String.join(",", indexed);
+            if (store.compareAndSet(DOCUMENTS_KEY, current, value)) {
+                // a document joined while it was dropped may have found itself already indexed
+                for (String docId : docIds) {
+                    if (store.getString(DOCUMENT_PREFIX + docId) != null) {
+                        index(docId);
+                    }
+                }
+                return;
+            }
+        }
+        logger.warn("Could not drop " + docIds.size() + " documents from the editing sessions index");
+    }
+
+    private Set<String> getLiveKeys(String value) {
+        Set<String> keys = new LinkedHashSet<String>();
+        for (String key : getKeys(value)) {
+            if (store.getString(SESSION_PREFIX + key) != null) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Document entries hold the time of their last update followed by the keys of their sessions.
+     */
+    private String toDocument(Set<String> keys) {
+        return System.currentTimeMillis() + ";" + String.join(",", keys);
+    }
+
+    private long getLastSeen(String value) {
+        int separator = value.indexOf(';');
+        try {
+            return separator == -1 ? 0 : Long.parseLong(value.substring(0, separator));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Set<String> getKeys(String value) {
+        Set<String> keys = new LinkedHashSet<String>();
+        if (value != null) {
+            String list = value.substring(value.indexOf(';') + 1);
+            if (!list.isEmpty()) {
+                keys.addAll(Arrays.asList(list.split(",")));
+            }
+        }
+        return keys;
+    }
+
+    private Set<String> getIndex(String value) {
+        Set<String> docIds = new LinkedHashSet<String>();
+        if (value != null && !value.isEmpty()) {
+            docIds.addAll(Arrays.asList(value.split(",")));
+        }
+        return docIds;
+    }
+}
@@ -0,0 +1,150 @@
+package org.onlyoffice.utils;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class MemorySessionStore implements SessionStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(MemorySessionStore.class);
+
+    private final Map<String, EditingSession> sessions = new HashMap<String, EditingSession>();
+
+    private final Map<String, Set<String>> documents = new HashMap<String, Set<String>>();
+
+    private final Map<String, String> locks = new HashMap<String, String>();
+
+    private final int dedupSize;
+
+    private DedupWindow dedupWindow;
+
+    public MemorySessionStore(int dedupSize) {
+        this.dedupSize = dedupSize;
+    }
+
+    @Override
+    public synchronized Boolean join(String docId, String key, Collection<String> users) {
+        EditingSession session = sessions.get(key);
+        if (session != null) {
+            session.participants = new HashSet<String>(users);
+            session.heartbeat = System.currentTimeMillis();
+            return false;
+        }
+
+        sessions.put(key, new EditingSession(docId, users));
+        Set<String> keys = documents.computeIfAbsent(docId, id -> new HashSet<String>());
+        keys.add(key);
+
+        return keys.size() == 1;
+    }
+
+    @Override
+    public synchronized Boolean leave(String docId, String key) {
+        EditingSession session = sessions.remove(key);
+        if (session == null) {
+            return !documents.containsKey(docId);
+        }
+
+        Set<String> keys = documents.get(session.docId);
+        keys.remove(key);
+        if (keys.isEmpty()) {
+            documents.remove(session.docId);
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public synchronized void touch(String docId, String key) {
+        EditingSession session = sessions.get(key);
+        if (session != null) {
+            session.heartbeat = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public synchronized void putLock(String docId, String lock) {
+        locks.put(docId, lock);
+    }
+
+    @Override
+    public synchronized String getLock(String docId) {
+        return locks.get(docId);
+    }
+
+    @Override
+    public synchronized void removeLock(String docId) {
+        locks.remove(docId);
+    }
+
+    @Override
+    public synchronized Collection<String> getParticipants(String key) {
+        EditingSession session = sessions.get(key);
+        return session == null ? Collections.<String>emptySet() : Collections.unmodifiableSet(session.participants);
+    }
+
+    @Override
+    public synchronized Integer getSessionCount() {
+        return sessions.size();
+    }
+
+    @Override
+    public synchronized Collection<String> cleanup(long timeout) {
+        long expired = System.currentTimeMillis() - timeout;
+        Set<String> released = new HashSet<String>();
+
+        Iterator<Map.Entry<String, EditingSession>> it = sessions.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, EditingSession> entry = it.next();
+            EditingSession session = entry.getValue();
+            if (session.heartbeat < expired) {
+                it.remove();
+                Set<String> keys = documents.get(session.docId);
+                keys.remove(entry.getKey());
+                if (keys.isEmpty()) {
+                    documents.remove(session.docId);
+                    released.add(session.docId);
+                }
+                logger.debug("Dropped stale editing session of document " + session.docId);
+            }
+        }
+        return released;
+    }
+
+    @Override
+    public synchronized Boolean claim(String key, long window) {
+        if (dedupWindow == null || dedupWindow.getWindow() != window) {
+            dedupWindow = new DedupWindow(window, dedupSize);
+        }
+        return dedupWindow.claim(key);
+    }
+
+    @Override
+    public synchronized void release(String key) {
+        if (dedupWindow != null) {
+            dedupWindow.release(key);
+        }
+    }
+
+    private static final class EditingSession {
+
+        private final String docId;
+
+        private Set<String> participants;
+
+        private long heartbeat;
+
+        private EditingSession(String docId, Collection<String> users) {
+            this.docId = docId;
+            this.participants = new HashSet<String>(users);
+            this.heartbeat = System.currentTimeMillis();
+        }
+    }
+}
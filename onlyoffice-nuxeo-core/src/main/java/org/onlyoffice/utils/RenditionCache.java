@@ -0,0 +1,110 @@
+package org.onlyoffice.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Files kept in a directory up to a total size, the least recently used ones being deleted first. The files found in
+ * the directory at startup are kept in the order of their last modification.
+ */
+public class RenditionCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(RenditionCache.class);
+
+    private static final String TEMP_PREFIX = ".tmp-";
+
+    private final File dir;
+
+    private final long maxSize;
+
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+    private long size;
+
+    public RenditionCache(File dir, long maxSize) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+
+        Files.createDirectories(dir.toPath());
+        File[] files = dir.listFiles();
+        if (files != null) {
+            Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+            for (File file : files) {
+                if (file.getName().startsWith(TEMP_PREFIX)) {
+                    Files.deleteIfExists(file.toPath());
+                } else if (file.isFile()) {
+                    entries.put(file.getName(), file.length());
+                    size += file.length();
+                }
+            }
+        }
+        evict();
+    }
+
+    public synchronized File get(String name) {
+        Long length = entries.get(name);
+        if (length == null) {
+            return null;
+        }
+
+        File file = new File(dir, name);
+        if (!file.isFile()) {
+            entries.remove(name);
+            size -= length;
+            return null;
+        }
+        return file;
+    }
+
+    public File put(String name, InputStream input) throws IOException {
+        // the content is written outside of the lock and then moved in place
+        Path temp = Files.createTempFile(dir.toPath(), TEMP_PREFIX, null);
+        try {
+            long length = Files.copy(input, temp, StandardCopyOption.REPLACE_EXISTING);
+            if (length > maxSize) {
+                return null;
+            }
+
+            File file = new File(dir, name);
+            synchronized (this) {
+                Files.move(temp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                Long previous = entries.put(name, length);
+                size += length - (previous == null ? 0 : previous);
+                evict();
+            }
+            return file;
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    private synchronized void evict() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (size > maxSize && it.hasNext()) {
+            Map.Entry<String, Long> entry = it.next();
+            it.remove();
+            size -= entry.getValue();
+            try {
+                Files.deleteIfExists(new File(dir, entry.getKey()).toPath());
+            } catch (IOException e) {
+                logger.warn("Could not delete cached rendition " + entry.getKey(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package org.onlyoffice.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.nuxeo.ecm.core.api.Blob;
+
+/**
+ * Decides which saves of a document create a version. Only the versions are coalesced, every changed save is still
+ * written to the document. The state is kept in the memory of each node and is not shared in a cluster.
+ */
+public class SavePolicy {
+
+    private final LinkedHashMap<String, State> states;
+
+    private final long coalesceWindow;
+
+    private final int versionSaves;
+
+    private final long versionInterval;
+
+    public SavePolicy(long coalesceWindow, int versionSaves, long versionInterval, int maxSize) {
+        this.coalesceWindow = coalesceWindow;
+        this.versionSaves = versionSaves;
+        this.versionInterval = versionInterval;
+        this.states = new LinkedHashMap<String, State>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, State> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    public boolean shouldVersion(String docId) {
+        return shouldVersion(docId, System.currentTimeMillis());
+    }
+
+    public void saved(String docId, boolean versioned) {
+        saved(docId, versioned, System.currentTimeMillis());
+    }
+
+    /**
+     * Returns true when the saved file has the digest of the stored one, so that it does not create a new revision.
+     */
+    public static boolean isUnchanged(Blob original, Blob saved) {
+        return original != null && saved.getDigest() != null && saved.getDigest().equals(original.getDigest());
+    }
+
+    synchronized boolean shouldVersion(String docId, long now) {
+        State state = states.get(docId);
+        if (state == null) {
+            state = new State();
+        }
+
+        if (versionSaves > 0 && state.saves + 1 >= versionSaves) {
+            return true;
+        }
+        if (versionInterval > 0 && now - state.lastVersion >= versionInterval) {
+            return true;
+        }
+        if (versionSaves > 0 || versionInterval > 0) {
+            return false;
+        }
+        return coalesceWindow <= 0 || now - state.lastSave >= coalesceWindow;
+    }
+
+    synchronized void saved(String docId, boolean versioned, long now) {
+        State state = states.get(docId);
+        if (state == null) {
+            state = new State();
+            states.put(docId, state);
+        }
+
+        state.lastSave = now;
+        if (versioned) {
+            state.saves = 0;
+            state.lastVersion = now;
+        } else {
+            state.saves++;
+        }
+    }
+
+    private static final class State {
+
+        private long lastSave;
+
+        private long lastVersion;
+
+        private int saves;
+    }
+}
@@ -0,0 +1,75 @@
+package org.onlyoffice.utils;
+
+import org.json.JSONObject;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.NuxeoException;
+import org.nuxeo.ecm.core.work.AbstractWork;
+import org.nuxeo.runtime.api.Framework;
+
+public class SaveWork extends AbstractWork {
+
+    private static final long serialVersionUID = 1L;
+
+    public static final String CATEGORY = "onlyofficeSave";
+
+    public static final String QUEUE_ID = "onlyoffice-save";
+
+    private static final int RETRY_COUNT = 3;
+
+    protected final String callback;
+
+    public SaveWork(String repositoryName, String docId, String username, String saveKey, String callback) {
+        super("onlyoffice-save:" + repositoryName + ":" + docId + ":" + saveKey);
+        setDocument(repositoryName, docId);
+        setOriginatingUsername(username);
+        this.callback = callback;
+    }
+
+    @Override
+    public String getCategory() {
+        return CATEGORY;
+    }
+
+    @Override
+    public String getTitle() {
+        return "ONLYOFFICE save of " + docId;
+    }
+
+    /**
+     * Saves of a document share its partition, so the work stream runs them one after the other on any node.
+     */
+    @Override
+    public String getPartitionKey() {
+        return docId;
+    }
+
+    @Override
+    public int getRetryCount() {
+        // the save is already acknowledged, a concurrent update of the document must not lose it
+        return RETRY_COUNT;
+    }
+
+    @Override
+    public void work() {
+        setStatus("Saving");
+        setProgress(Progress.PROGRESS_INDETERMINATE);
+
+        // the change token carried by the callback rejects a stale save that would arrive out of order
+        openUserSession();
+        CallbackManager callbackManager = Framework.getService(CallbackManager.class);
+        JSONObject json = null;
+        try {
+            json = new JSONObject(callback);
+            DocumentModel model = session.getDocument(new IdRef(docId));
+            callbackManager.processCallback(session, model, json);
+        } catch (Exception e) {
+            if (json != null) {
+                callbackManager.forgetCallback(docId, json);
+            }
+            throw e instanceof NuxeoException ? (NuxeoException) e : new NuxeoException(e);
+        }
+
+        setStatus("Done");
+    }
+}
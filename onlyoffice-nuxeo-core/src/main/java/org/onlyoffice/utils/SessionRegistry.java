@@ -0,0 +1,16 @@
+package org.onlyoffice.utils;
+
+import java.util.Collection;
+
+import org.nuxeo.ecm.core.api.Lock;
+
+public interface SessionRegistry {
+    public Boolean join(String docId, String key, Collection<String> users);
+    public Boolean leave(String docId, String key);
+    public void touch(String docId, String key);
+    public void putLock(String docId, Lock lock);
+    public Collection<String> getParticipants(String key);
+    public Integer getSessionCount();
+    public Boolean claimCallback(String key);
+    public void releaseCallback(String key);
+}
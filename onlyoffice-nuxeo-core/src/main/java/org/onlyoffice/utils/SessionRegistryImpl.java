@@ -0,0 +1,187 @@
+package org.onlyoffice.utils;
+
+import java.util.Collection;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.nuxeo.ecm.core.api.CoreInstance;
+import org.nuxeo.ecm.core.api.DocumentRef;
+import org.nuxeo.ecm.core.api.IdRef;
+import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.core.api.repository.RepositoryManager;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class SessionRegistryImpl extends DefaultComponent implements SessionRegistry {
+
+    private static final Logger logger = LoggerFactory.getLogger(SessionRegistryImpl.class);
+
+    private static final long CLEANUP_INTERVAL = 60;
+
+    private static final String MEMORY_STORE = "memory";
+
+    private static final String KEYVALUE_STORE = "keyvalue";
+
+    private ScheduledExecutorService cleaner;
+
+    private SessionStore store;
+
+    private ConfigManager config;
+
+    @Override
+    public void activate(ComponentContext context) {
+        super.activate(context);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "onlyoffice-session-cleaner");
+            thread.setDaemon(true);
+            return thread;
+        });
+        cleaner.scheduleWithFixedDelay(() -> cleanup(getConfig().getSessionTimeout()), CLEANUP_INTERVAL,
+                CLEANUP_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        cleaner.shutdownNow();
+
+        super.deactivate(context);
+    }
+
+    @Override
+    public Boolean join(String docId, String key, Collection<String> users) {
+        return getStore().join(docId, key, users);
+    }
+
+    @Override
+    public Boolean leave(String docId, String key) {
+        if (!getStore().leave(docId, key)) {
+            return false;
+        }
+        getStore().removeLock(docId);
+        return true;
+    }
+
+    @Override
+    public void touch(String docId, String key) {
+        getStore().touch(docId, key);
+    }
+
+    /**
+     * Records the lock set when the document was opened for editing, so that only this lock is removed when its
+     * sessions go stale.
+     */
+    @Override
+    public void putLock(String docId, Lock lock) {
+        getStore().putLock(docId, toString(lock));
+    }
+
+    @Override
+    public Collection<String> getParticipants(String key) {
+        return getStore().getParticipants(key);
+    }
+
+    @Override
+    public Integer getSessionCount() {
+        return getStore().getSessionCount();
+    }
+
+    /**
+     * Claims a save callback for the dedup window, returns false if it was already claimed by this node or, with a
+     * shared store, by another one.
+     */
+    @Override
+    public Boolean claimCallback(String key) {
+        return getStore().claim(key, getConfig().getDedupWindow());
+    }
+
+    @Override
+    public void releaseCallback(String key) {
+        getStore().release(key);
+    }
+
+    /**
+     * Drops the sessions without any callback for longer than the timeout, and unlocks the documents left without
+     * any session, as Document Server will not send their final callback anymore. Nothing is dropped without a
+     * timeout.
+     */
+    void cleanup(long timeout) {
+        if (timeout <= 0) {
+            return;
+        }
+        try {
+            for (String docId : getStore().cleanup(timeout)) {
+                unlock(docId);
+            }
+        } catch (Exception e) {
+            logger.error("Error while dropping stale editing sessions", e);
+        }
+    }
+
+    private void unlock(String docId) {
+        String recorded = getStore().getLock(docId);
+        getStore().removeLock(docId);
+        if (recorded == null) {
+            logger.debug("Document " + docId + " was not locked by its editing sessions, keeping its lock");
+            return;
+        }
+
+        DocumentRef ref = new IdRef(docId);
+        for (String repositoryName : Framework.getService(RepositoryManager.class).getRepositoryNames()) {
+            TransactionHelper.runInTransaction(() -> CoreInstance.doPrivileged(repositoryName, session -> {
+                if (!session.exists(ref)) {
+                    return;
+                }
+                Lock lock = session.getLockInfo(ref);
+                if (lock != null && recorded.equals(toString(lock))) {
+                    session.removeLock(ref);
+                    logger.info("Unlocked document " + docId + " left by a stale editing session");
+                } else if (lock != null) {
+                    logger.info("Document " + docId + " was locked again by " + lock.getOwner() + ", keeping its lock");
+                }
+            }));
+        }
+    }
+
+    private String toString(Lock lock) {
+        return lock.getOwner() + ":" + (lock.getCreated() == null ? "" : lock.getCreated().getTimeInMillis());
+    }
+
+    /**
+     * Replaces the store of the sessions, the configured one is created again when none is set.
+     */
+    synchronized void setStore(SessionStore store) {
+        this.store = store;
+    }
+
+    private synchronized SessionStore getStore() {
+        if (store == null) {
+            String type = getConfig().getSessionStore();
+            if (KEYVALUE_STORE.equals(type)) {
+                String name = getConfig().getSessionStoreName();
+                store = new KeyValueSessionStore(Framework.getService(KeyValueService.class).getKeyValueStore(name),
+                        getConfig().getSessionTimeout());
+                logger.info("Editing sessions are shared in key/value store " + name);
+            } else {
+                if (!MEMORY_STORE.equals(type)) {
+                    logger.warn("Unknown session store " + type + ", keeping the editing sessions in memory");
+                }
+                store = new MemorySessionStore(getConfig().getDedupSize());
+            }
+        }
+        return store;
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+}
@@ -0,0 +1,17 @@
+package org.onlyoffice.utils;
+
+import java.util.Collection;
+
+public interface SessionStore {
+    public Boolean join(String docId, String key, Collection<String> users);
+    public Boolean leave(String docId, String key);
+    public void touch(String docId, String key);
+    public void putLock(String docId, String lock);
+    public String getLock(String docId);
+    public void removeLock(String docId);
+    public Collection<String> getParticipants(String key);
+    public Integer getSessionCount();
+    public Collection<String> cleanup(long timeout);
+    public Boolean claim(String key, long window);
+    public void release(String key);
+}
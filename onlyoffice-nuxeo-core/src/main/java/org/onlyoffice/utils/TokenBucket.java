@@ -0,0 +1,34 @@
+package org.onlyoffice.utils;
+
+public class TokenBucket {
+
+    private final double rate;
+
+    private final double capacity;
+
+    private double tokens;
+
+    private long refilled;
+
+    public TokenBucket(double rate, double capacity) {
+        this.rate = rate;
+        this.capacity = capacity;
+        this.tokens = capacity;
+        this.refilled = System.nanoTime();
+    }
+
+    /**
+     * @return 0 if a token was taken, otherwise the number of milliseconds until the next token
+     */
+    public synchronized long tryAcquire() {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - refilled) / 1e9 * rate);
+        refilled = now;
+
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        return (long) Math.ceil((1 - tokens) / rate * 1000);
+    }
+}
@@ -0,0 +1,5 @@
+package org.onlyoffice.utils;
+
+public interface TokenManager {
+    public String getToken(String user) throws Exception;
+}
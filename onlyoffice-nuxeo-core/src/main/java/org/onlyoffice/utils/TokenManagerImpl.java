@@ -0,0 +1,208 @@
+package org.onlyoffice.utils;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.tokenauth.service.TokenAuthenticationService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.model.ComponentContext;
+import org.nuxeo.runtime.model.DefaultComponent;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TokenManagerImpl extends DefaultComponent implements TokenManager {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenManagerImpl.class);
+
+    private static final String APPLICATION = "ONLYOFFICE";
+    private static final String DEVICE = "editor";
+    private static final String PERMISSION = "rw";
+
+    private static final long CLEANUP_INTERVAL = 60;
+
+    private final Map<String, IssuedToken> tokens = new LinkedHashMap<String, IssuedToken>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, IssuedToken> eldest) {
+            return size() > getConfig().getTokenCacheSize();
+        }
+    };
+
+    private final Map<String, Future<IssuedToken>> pending = new ConcurrentHashMap<String, Future<IssuedToken>>();
+
+    private final Queue<IssuedToken> issued = new ConcurrentLinkedQueue<IssuedToken>();
+
+    private ThreadPoolExecutor acquirer;
+    private ScheduledExecutorService cleaner;
+
+    private ConfigManager config;
+
+    @Override
+    public void activate(ComponentContext context) {
+        super.activate(context);
+
+        acquirer = new ThreadPoolExecutor(1, 4, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(100),
+                newThreadFactory("onlyoffice-token"));
+        acquirer.allowCoreThreadTimeOut(true);
+
+        cleaner = Executors.newSingleThreadScheduledExecutor(newThreadFactory("onlyoffice-token-cleaner"));
+        cleaner.scheduleWithFixedDelay(() -> cleanup(System.currentTimeMillis()), CLEANUP_INTERVAL, CLEANUP_INTERVAL,
+                TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void deactivate(ComponentContext context) {
+        cleaner.shutdownNow();
+        acquirer.shutdownNow();
+
+        super.deactivate(context);
+    }
+
+    @Override
+    public String getToken(String user) throws Exception {
+        long now = System.currentTimeMillis();
+
+        IssuedToken current;
+        synchronized (tokens) {
+            current = tokens.get(user);
+        }
+
+        if (current != null && now - current.issued < getConfig().getTokenTtl()) {
+            return current.token;
+        }
+
+        try {
+            return acquire(user, now).token;
+        } catch (TimeoutException | RejectedExecutionException e) {
+            if (current != null && now - current.issued < getConfig().getTokenMaxAge()) {
+                logger.warn("Token service is not responding, reusing the previous token of " + user);
+                return current.token;
+            }
+            throw e;
+        }
+    }
+
+    private IssuedToken acquire(String user, long now) throws Exception {
+        Future<IssuedToken> future = pending.computeIfAbsent(user, u -> acquirer.submit(() -> issue(u, now)));
+        try {
+            return future.get(getConfig().getTokenTimeout(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } finally {
+            // a late result is only kept in the token cache, where its age is checked, so that the next request
+            // does not get a token that was revoked in the meantime
+            pending.remove(user, future);
+        }
+    }
+
+    private IssuedToken issue(String user, long now) {
+        // the device is derived from the rotation period, so a restarted node
+        // gets the token already stored for the current period back
+        String device = DEVICE + "-" + now / getConfig().getTokenTtl();
+        String token = TransactionHelper.runInTransaction(() -> getAuthService().acquireToken(user, APPLICATION,
+                device, "auth", PERMISSION));
+
+        IssuedToken issuedToken = new IssuedToken(user, token, now);
+        synchronized (tokens) {
+            tokens.put(user, issuedToken);
+        }
+        issued.add(issuedToken);
+
+        revokeExpiredBindings(user, now);
+
+        logger.debug("Issued a new editor token for " + user);
+        return issuedToken;
+    }
+
+    private void revokeExpiredBindings(String user, long now) {
+        long expired = now - getConfig().getTokenMaxAge();
+        TransactionHelper.runInTransaction(() -> {
+            for (DocumentModel binding : getAuthService().getTokenBindings(user, APPLICATION)) {
+                Calendar created = (Calendar) binding.getPropertyValue("authtoken:creationDate");
+                if (created != null && created.getTimeInMillis() < expired) {
+                    getAuthService().revokeToken((String) binding.getPropertyValue("authtoken:token"));
+                }
+            }
+        });
+    }
+
+    /**
+     * Revokes the tokens older than the max age. Younger tokens may still be in the callback url of an open editor,
+     * so they are kept even once evicted from the token cache.
+     */
+    void cleanup(long now) {
+        try {
+            long expired = now - getConfig().getTokenMaxAge();
+
+            IssuedToken head;
+            while ((head = issued.peek()) != null && head.issued < expired) {
+                if (issued.remove(head)) {
+                    revoke(head);
+                }
+            }
+        } catch (Exception e) {
+            logger.error("Error while revoking expired editor tokens", e);
+        }
+    }
+
+    private void revoke(IssuedToken issuedToken) {
+        synchronized (tokens) {
+            tokens.remove(issuedToken.user, issuedToken);
+        }
+        TransactionHelper.runInTransaction(() -> getAuthService().revokeToken(issuedToken.token));
+        logger.debug("Revoked editor token of " + issuedToken.user);
+    }
+
+    private ThreadFactory newThreadFactory(String name) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    private TokenAuthenticationService getAuthService() {
+        return Framework.getService(TokenAuthenticationService.class);
+    }
+
+    private ConfigManager getConfig() {
+        if (config == null) {
+            config = Framework.getService(ConfigManager.class);
+        }
+        return config;
+    }
+
+    private static final class IssuedToken {
+
+        private final String user;
+
+        private final String token;
+
+        private final long issued;
+
+        private IssuedToken(String user, String token, long issued) {
+            this.user = user;
+            this.token = token;
+            this.issued = issued;
+        }
+    }
+}
@@ -7,4 +7,5 @@ public interface Utils {
     public String getFileExtension(String filename);
     public String getDocumentType(String ext);
     public String getChangeToken(String key);
+    public Integer getAttachmentIndex(DocumentModel model, String digest, String hint);
 }
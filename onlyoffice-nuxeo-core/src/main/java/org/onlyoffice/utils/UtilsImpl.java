@@ -1,15 +1,31 @@
 package org.onlyoffice.utils;
 
 import java.util.Base64;
+import java.util.HashMap;
+import java.util.Locale;
 
+import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.model.Property;
+import org.nuxeo.ecm.core.api.model.PropertyException;
+import org.nuxeo.ecm.core.cache.Cache;
+import org.nuxeo.ecm.core.cache.CacheService;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.model.DefaultComponent;
 
 public class UtilsImpl extends DefaultComponent implements Utils {
 
+    private static final String ATTACHMENT_CACHE = "onlyoffice-attachment-index";
+
     @Override
     public String getDocumentKey(DocumentModel model, String index) {
         try {
+            // a force save changes the change token, but Document Server keeps editing with the key of the session
+            ForceSave forceSave = ForceSave.getCurrent(model, index == null ? "file:content" : "files:files/" + index + "/file");
+            if (forceSave != null) {
+                return forceSave.getKey();
+            }
+
             String key = model.getId() + (index==null?"":"a"+index)+ "__" + model.getChangeToken();
             return Base64.getEncoder().encodeToString(key.getBytes("UTF-8"));
         } catch (Exception e) {
@@ -19,15 +35,24 @@ public class UtilsImpl extends DefaultComponent implements Utils {
 
     @Override
     public String getDocumentType(String ext) {
-        if (".doc.docx.docm.dot.dotx.dotm.odt.fodt.ott.rtf.txt.html.htm.mht.pdf.djvu.fb2.epub.xps".indexOf(ext) != -1) return "text";
-        if (".xls.xlsx.xlsm.xlt.xltx.xltm.ods.fods.ots.csv".indexOf(ext) != -1) return "spreadsheet";
-        if (".pps.ppsx.ppsm.ppt.pptx.pptm.pot.potx.potm.odp.fodp.otp".indexOf(ext) != -1) return "presentation";
-        return null;
+        Format format = getFormatManager().getFormat(ext);
+        return format != null ? format.getType() : null;
     }
 
     @Override
     public String getFileExtension(String filename) {
-        return filename.substring(filename.lastIndexOf(".") + 1).trim().toLowerCase();
+        int start = filename.lastIndexOf('.') + 1;
+        int end = filename.length();
+        while (start < end && filename.charAt(start) <= ' ') start++;
+        while (end > start && filename.charAt(end - 1) <= ' ') end--;
+
+        for (int i = start; i < end; i++) {
+            char c = filename.charAt(i);
+            if (c >= 'A' && c <= 'Z' || c > 127) {
+                return filename.substring(start, end).toLowerCase(Locale.ROOT);
+            }
+        }
+        return filename.substring(start, end);
     }
 
     @Override
@@ -40,4 +65,44 @@ public class UtilsImpl extends DefaultComponent implements Utils {
         }
     }
 
+    @Override
+    public Integer getAttachmentIndex(DocumentModel model, String digest, String hint) {
+        if (!model.hasSchema("files")) {
+            return null;
+        }
+
+        if (hint != null && !hint.isEmpty()) {
+            try {
+                int index = Integer.parseInt(hint);
+                Blob blob = (Blob) model.getPropertyValue("files:files/" + index + "/file");
+                if (blob != null && digest.equals(blob.getDigest())) {
+                    return index;
+                }
+            } catch (NumberFormatException | IndexOutOfBoundsException | PropertyException e) {
+                // stale or invalid hint, fall back to the digest index
+            }
+        }
+
+        Cache cache = Framework.getService(CacheService.class).getCache(ATTACHMENT_CACHE);
+        String key = model.getRepositoryName() + ":" + model.getId() + "__" + model.getChangeToken();
+
+        HashMap<String, Integer> indexes = (HashMap<String, Integer>) cache.get(key);
+        if (indexes == null) {
+            indexes = new HashMap<String, Integer>();
+            Property files = model.getProperty("files:files");
+            for (int i = 0; i < files.size(); i++) {
+                Blob blob = (Blob) files.get(i).getValue("file");
+                if (blob != null && blob.getDigest() != null) {
+                    indexes.putIfAbsent(blob.getDigest(), i);
+                }
+            }
+            cache.put(key, indexes);
+        }
+
+        return indexes.get(digest);
+    }
+
+    protected FormatManager getFormatManager() {
+        return Framework.getService(FormatManager.class);
+    }
 }
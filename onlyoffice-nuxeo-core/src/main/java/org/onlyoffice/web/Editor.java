@@ -1,37 +1,49 @@
 package org.onlyoffice.web;
 
+import java.net.URI;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
 import javax.ws.rs.Consumes;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-
-import com.sun.org.apache.bcel.internal.generic.ATHROW;
+import javax.ws.rs.core.Response.ResponseBuilder;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Timer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.json.JSONArray;
 import org.json.JSONObject;
-import org.nuxeo.ecm.core.api.Blob;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
-import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
-import org.nuxeo.ecm.core.api.model.impl.ListProperty;
-import org.nuxeo.ecm.tokenauth.service.TokenAuthenticationService;
 import org.nuxeo.ecm.webengine.model.WebContext;
 import org.nuxeo.ecm.webengine.model.WebObject;
 import org.nuxeo.ecm.webengine.model.impl.ModuleRoot;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
 import org.onlyoffice.utils.ConfigManager;
-import org.onlyoffice.utils.JwtManager;
+import org.onlyoffice.utils.EditorConfigManager;
+import org.onlyoffice.utils.HealthMonitor;
+import org.onlyoffice.utils.HealthStatus;
+import org.onlyoffice.utils.TokenManager;
 import org.onlyoffice.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.Serializable;
-import java.util.List;
-import java.util.Map;
-
 @Path("/onlyedit")
 @WebObject(type = "onlyedit")
 @Consumes(MediaType.WILDCARD)
@@ -40,115 +52,203 @@ public class Editor extends ModuleRoot {
 
     private static final Logger logger = LoggerFactory.getLogger(Editor.class);
 
-    private JwtManager jwtManager;
+    private static final String API_PATH = "OfficeWeb/apps/api/documents/api.js";
+
+    private static final String UNAVAILABLE_MESSAGE = "ONLYOFFICE Document Server is unavailable, please try again later";
+
+    // changes with the editor page, so that the pages cached by browsers are replaced
+    private static final String SHELL_VERSION = "2";
+
+    private static final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
+    private static final Timer openTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "open"));
+    private static final Timer shellTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "shell"));
+    private static final Timer tokenTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "token"));
+    private static final Timer batchTimer = registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "batch"));
+    private static final Counter unavailable = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "unavailable"));
+    private static final Counter viewFallbacks = registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "editor", "fallback", "view"));
+
     private ConfigManager config;
+    private EditorConfigManager editorConfigManager;
     private Utils utils;
-
-    private TokenAuthenticationService authService;
+    private TokenManager tokenManager;
+    private HealthMonitor healthMonitor;
 
     @Override
     protected void initialize(Object... args) {
         super.initialize(args);
 
-        jwtManager = Framework.getService(JwtManager.class);
         config = Framework.getService(ConfigManager.class);
+        editorConfigManager = Framework.getService(EditorConfigManager.class);
         utils = Framework.getService(Utils.class);
-        authService = Framework.getService(TokenAuthenticationService.class);
+        tokenManager = Framework.getService(TokenManager.class);
+        healthMonitor = Framework.getService(HealthMonitor.class);
     }
 
     @GET
     @Path("{id}")
     @Produces(MediaType.TEXT_HTML)
-    public Object getEdit(@PathParam("id") String id, @QueryParam("mode") String mode, @QueryParam("index") String indexAtt, @QueryParam("digest") String digest) {
+    public Object getEdit(@PathParam("id") String id, @QueryParam("mode") String mode, @QueryParam("index") String indexAtt, @QueryParam("digest") String digest, @Context Request request) {
+        Timer.Context timer = shellTimer.time();
         WebContext ctx = getContext();
         CoreSession session = ctx.getCoreSession();
         DocumentModel model = session.getDocument(new IdRef(id));
 
         try {
-            return getView("index")
-                    .arg("config", getConfig(ctx, model, mode, indexAtt, digest))
-                    .arg("docUrl", config.getDocServUrl())
-                    .arg("docTitle", model.getTitle());
+            if (!healthMonitor.isAvailable()) {
+                // fail fast instead of leaving the user waiting for api.js
+                return getUnavailable(getView("unavailable").arg("docTitle", model.getTitle()));
+            }
+
+            // the page only holds the title and the Document Server url, the config is fetched by the page itself,
+            // so the page stays valid as long as the document version
+            String docUrl = config.getDocServUrl();
+            EntityTag tag = new EntityTag(DigestUtils.md5Hex(String.join("|", SHELL_VERSION,
+                    utils.getDocumentKey(model, indexAtt), String.valueOf(digest), ctx.getPrincipal().getName(),
+                    "edit".equals(mode) ? "edit" : "view", docUrl)));
+            Date lastModified = getLastModified(model);
+
+            ResponseBuilder builder = lastModified == null ? request.evaluatePreconditions(tag)
+                    : request.evaluatePreconditions(lastModified, tag);
+            if (builder == null) {
+                builder = Response.ok(getView("index")
+                        .arg("docUrl", docUrl)
+                        .arg("docTitle", model.getTitle()));
+            }
+
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setPrivate(true);
+            cacheControl.setNoCache(true);
+
+            return builder.tag(tag)
+                    .lastModified(lastModified)
+                    .cacheControl(cacheControl)
+                    .header("Link", "<" + getOrigin(docUrl) + ">; rel=preconnect")
+                    .header("Link", "<" + docUrl + API_PATH + ">; rel=preload; as=script")
+                    .build();
+        } catch (Exception e) {
+            logger.error("Error while opening editor for " + id, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        } finally {
+            timer.stop();
+        }
+    }
+
+    @GET
+    @Path("{id}/config")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Object getEditConfig(@PathParam("id") String id, @QueryParam("mode") String mode, @QueryParam("index") String indexAtt, @QueryParam("digest") String digest) {
+        Timer.Context timer = openTimer.time();
+        WebContext ctx = getContext();
+        CoreSession session = ctx.getCoreSession();
+        DocumentModel model = session.getDocument(new IdRef(id));
+
+        try {
+            if (!healthMonitor.isAvailable()) {
+                return getUnavailable(UNAVAILABLE_MESSAGE);
+            }
+
+            // the config carries the access token of the user and must not be stored
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setPrivate(true);
+            cacheControl.setNoStore(true);
+
+            return Response.ok(getCachedConfig(ctx, model, getMode(mode), indexAtt, digest)).cacheControl(cacheControl).build();
         } catch (IllegalArgumentException e) {
             logger.error("Error while opening editor for " + id +": " + e.getMessage());
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
         } catch (Exception e) {
             logger.error("Error while opening editor for " + id, e);
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        } finally {
+            timer.stop();
         }
     }
 
-    private JSONObject getConfig(WebContext ctx, DocumentModel model, String mode, String indexAtt, String digest) throws Exception {
-        String user = ctx.getPrincipal().getName();
-        String token = authService.acquireToken(user, "ONLYOFFICE", "editor", "auth", "rw");
-        String baseUrl = ctx.getBaseURL();
-        String repoName = ctx.getCoreSession().getRepositoryName();
-        String locale = ctx.getLocale().toLanguageTag();
-
-        JSONObject responseJson = new JSONObject();
-        JSONObject documentObject = new JSONObject();
-        JSONObject editorConfigObject = new JSONObject();
-        JSONObject userObject = new JSONObject();
-        JSONObject permObject = new JSONObject();
-
-        String docId = model.getId();
-        String docTitle = "";
-        String docFilename = "";
-        String docExt = "";
-        String contentUrl = "";
-        String callbackUrl = "";
-
-        if (indexAtt == null) {
-            docTitle = model.getTitle();
-            docFilename = model.getAdapter(BlobHolder.class).getBlob().getFilename();
-            contentUrl = String.format("%s/nuxeo/nxfile/%s/%s/file:content/%s?token=%s", baseUrl, repoName, docId, docFilename, token);
-            callbackUrl = String.format("%s/nuxeo/api/v1/onlyoffice/callback/%s?token=%s", baseUrl, docId, token);
-        } else {
-            if (digest == null) {
-                throw new IllegalArgumentException("Digest is null");
+    @GET
+    @Path("{id}/configs")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Object getConfigs(@PathParam("id") String id, @QueryParam("mode") String mode, @QueryParam("index") List<String> indexes, @QueryParam("digest") List<String> digests) {
+        Timer.Context timer = batchTimer.time();
+        WebContext ctx = getContext();
+        CoreSession session = ctx.getCoreSession();
+
+        try {
+            if (Math.max(indexes.size(), digests.size()) > EditorConfigManager.MAX_BATCH_SIZE) {
+                return Response.status(Response.Status.BAD_REQUEST)
+                        .entity("At most " + EditorConfigManager.MAX_BATCH_SIZE + " attachments can be requested at once").build();
             }
-            List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) model.getPropertyValue("files:files");
-            Map<String, Serializable> map = files.get(Integer.parseInt(indexAtt));
-            Blob blob = (Blob) map.get("file");
 
-            if (!digest.equals(blob.getDigest())){
-                throw new IllegalArgumentException("Digest is incorrect");
+            if (!healthMonitor.isAvailable()) {
+                return getUnavailable(UNAVAILABLE_MESSAGE);
             }
+            mode = getMode(mode);
+
+            DocumentModel model = session.getDocument(new IdRef(id));
+            JSONArray configs = editorConfigManager.getConfigs(model, ctx.getPrincipal().getName(), ctx.getBaseURL(),
+                    ctx.getLocale().toLanguageTag(), getToken(ctx), mode, indexes, digests);
+
+            JSONObject response = new JSONObject();
+            response.put("docUrl", config.getDocServUrl());
+            response.put("configs", configs);
+            return Response.ok(response.toString()).build();
+        } catch (NumberFormatException e) {
+            return Response.status(Response.Status.BAD_REQUEST).entity("Invalid attachment index").build();
+        } catch (Exception e) {
+            logger.error("Error while building editor configs for " + id, e);
+            return Response.status(Response.Status.INTERNAL_SERVER_ERROR).entity(e.getMessage()).build();
+        } finally {
+            timer.stop();
+        }
+    }
+
+    /**
+     * Opens the documents for viewing while Document Server is slow, so that no edit is lost to a failing save.
+     */
+    private String getMode(String mode) {
+        if ("edit".equals(mode) && healthMonitor.getStatus().getState() == HealthStatus.State.DEGRADED) {
+            viewFallbacks.inc();
+            return "view";
+        }
+        return mode;
+    }
+
+    private Response getUnavailable(Object entity) {
+        unavailable.inc();
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setNoStore(true);
+
+        return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                .entity(entity)
+                .cacheControl(cacheControl)
+                .header("Retry-After", Math.max(1, TimeUnit.MILLISECONDS.toSeconds(config.getHealthInterval())))
+                .build();
+    }
 
-            docFilename = blob.getFilename();
-            docTitle = docFilename;
-            contentUrl = String.format("%s/nuxeo/nxfile/%s/%s/files:files/%s/file/%s?token=%s", baseUrl, repoName, docId, indexAtt, docFilename, token);
-            callbackUrl = String.format("%s/nuxeo/api/v1/onlyoffice/callback/%s?digest=%s&token=%s", baseUrl, docId, digest, token);
+    private Date getLastModified(DocumentModel model) {
+        if (!model.hasSchema("dublincore")) {
+            return null;
         }
+        Calendar modified = (Calendar) model.getPropertyValue("dc:modified");
+        return modified == null ? null : modified.getTime();
+    }
+
+    private String getOrigin(String url) {
+        URI uri = URI.create(url);
+        return uri.getScheme() + "://" + uri.getRawAuthority();
+    }
 
-        docExt = utils.getFileExtension(docFilename);
-        Boolean toEdit = mode != null && mode.equals("edit");
-
-        responseJson.put("type", "desktop");
-        responseJson.put("width", "100%");
-        responseJson.put("height", "100%");
-        responseJson.put("documentType", utils.getDocumentType(docExt));
-
-        responseJson.put("document", documentObject);
-        documentObject.put("title", docTitle);
-        documentObject.put("url", contentUrl);
-        documentObject.put("fileType", docExt);
-        documentObject.put("key", utils.getDocumentKey(model, indexAtt));
-        documentObject.put("permissions", permObject);
-        permObject.put("edit", toEdit);
-
-        responseJson.put("editorConfig", editorConfigObject);
-        editorConfigObject.put("lang", locale);
-        editorConfigObject.put("mode", toEdit ? "edit" : "view");
-        editorConfigObject.put("callbackUrl", callbackUrl);
-        editorConfigObject.put("user", userObject);
-        userObject.put("id", user);
-        userObject.put("name", user);
-
-        if (jwtManager.isEnabled()) {
-            responseJson.put("token", jwtManager.createToken(responseJson));
+    private String getToken(WebContext ctx) throws Exception {
+        Timer.Context timer = tokenTimer.time();
+        try {
+            return tokenManager.getToken(ctx.getPrincipal().getName());
+        } finally {
+            timer.stop();
         }
+    }
 
-        return responseJson;
+    private String getCachedConfig(WebContext ctx, DocumentModel model, String mode, String indexAtt, String digest) throws Exception {
+        return editorConfigManager.getConfig(model, ctx.getPrincipal().getName(), ctx.getBaseURL(),
+                ctx.getLocale().toLanguageTag(), getToken(ctx), mode, indexAtt, digest);
     }
 }
@@ -4,7 +4,18 @@
     <meta http-equiv='Content-Type' content='text/html; charset=utf-8'>
     <link rel="icon" sizes="32x32" href="images/touch/favicon-32x32.png" type="image/png">
     <link rel="icon" sizes="16x16" href="images/touch/favicon-16x16.png" type="image/png">
+    <link rel="preconnect" href="${docUrl}">
+    <link rel="preload" href="${docUrl}OfficeWeb/apps/api/documents/api.js" as="script">
     <title>${docTitle} - ONLYOFFICE</title>
+    <script>
+        // the config is fetched while api.js loads
+        var configRequest = fetch(location.pathname + "/config" + location.search, { credentials: "same-origin" })
+            .then(function(response) {
+                return response.ok ? response.json() : response.text().then(function(message) {
+                    throw new Error(message);
+                });
+            });
+    </script>
     <style>
         html, body {
             height: 100%;
@@ -29,8 +40,11 @@
 <body>
     <div id="placeholder"></div>
     <script>
-        var config = ${config};
-        new DocsAPI.DocEditor("placeholder", config);
+        configRequest.then(function(config) {
+            new DocsAPI.DocEditor("placeholder", config);
+        }).catch(function(error) {
+            document.getElementById("placeholder").textContent = error.message;
+        });
     </script>
 </body>
 </html>
\ No newline at end of file
@@ -0,0 +1,23 @@
+<!DOCTYPE html>
+<html>
+<head>
+    <meta http-equiv='Content-Type' content='text/html; charset=utf-8'>
+    <link rel="icon" sizes="32x32" href="images/touch/favicon-32x32.png" type="image/png">
+    <link rel="icon" sizes="16x16" href="images/touch/favicon-16x16.png" type="image/png">
+    <title>${docTitle} - ONLYOFFICE</title>
+    <style>
+        body {
+            background: #fff;
+            color: #333;
+            font-family: Arial, Tahoma,sans-serif;
+            font-size: 12px;
+            font-weight: normal;
+            margin: 0;
+            padding: 20px;
+        }
+    </style>
+</head>
+<body>
+    <p>ONLYOFFICE Document Server is unavailable, please try again later.</p>
+</body>
+</html>
@@ -0,0 +1,67 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestAdmissionController {
+
+    @Inject
+    protected AdmissionController admissioncontroller;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Test
+    public void testService() {
+        assertNotNull(admissioncontroller);
+    }
+
+    @Test
+    public void testLimits() {
+        Framework.getProperties().setProperty("onlyoffice.callback.concurrency", "2");
+        Framework.getProperties().setProperty("onlyoffice.callback.concurrency.reserved", "1");
+        Framework.getProperties().setProperty("onlyoffice.callback.concurrency.document", "1");
+        Framework.getProperties().setProperty("onlyoffice.callback.wait", "10");
+        configmanager.reload();
+
+        try {
+            try (Admission save = admissioncontroller.admit("doc1", 2)) {
+                assertRejected("doc1", 1);
+                // the only save permit is taken, but status changes still get the reserved one
+                assertRejected("doc2", 2);
+                admissioncontroller.admit("doc2", 4).close();
+            }
+
+            admissioncontroller.admit("doc1", 2).close();
+        } finally {
+            Framework.getProperties().remove("onlyoffice.callback.concurrency");
+            Framework.getProperties().remove("onlyoffice.callback.concurrency.reserved");
+            Framework.getProperties().remove("onlyoffice.callback.concurrency.document");
+            Framework.getProperties().remove("onlyoffice.callback.wait");
+            configmanager.reload();
+        }
+    }
+
+    private void assertRejected(String docId, int status) {
+        try {
+            admissioncontroller.admit(docId, status).close();
+            fail("Callback with status " + status + " for " + docId + " should have been rejected");
+        } catch (CallbackRejectedException e) {
+            assertEquals(CallbackRejectedException.SERVICE_UNAVAILABLE, e.getStatus());
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.ConcurrentUpdateException;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestCallbackManager {
+
+    @Inject
+    protected CallbackManager callbackmanager;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected Utils utils;
+
+    private HttpServer server;
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    private DocumentModel model;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/saved", this::serve);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        model = session.createDocumentModel("/", "document", "File");
+        model.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob("original", "text/plain", "UTF-8", "document.docx"));
+        model = session.createDocument(model);
+        session.save();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Framework.getProperties().remove("onlyoffice.callback.async");
+        configmanager.reload();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(callbackmanager);
+    }
+
+    @Test
+    public void testSaveAndUnlock() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+
+        callback(1, key, null);
+        assertTrue(getDocument().isLocked());
+
+        callback(2, key, getUrl("/saved?v=1"));
+        assertEquals("saved 1", getContent(getDocument()));
+        assertFalse(getDocument().isLocked());
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void testForceSave() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+        callback(1, key, null);
+
+        callback(6, key, getUrl("/saved?v=1"));
+        assertEquals("saved 1", getContent(getDocument()));
+        assertTrue(getDocument().isLocked());
+        // editors opened during the session join it
+        assertEquals(key, utils.getDocumentKey(getDocument(), null));
+
+        callback(6, key, getUrl("/saved?v=2"));
+        assertEquals("saved 2", getContent(getDocument()));
+        assertEquals(key, utils.getDocumentKey(getDocument(), null));
+
+        callback(2, key, getUrl("/saved?v=3"));
+        assertEquals("saved 3", getContent(getDocument()));
+        assertFalse(getDocument().isLocked());
+        assertNotEquals(key, utils.getDocumentKey(getDocument(), null));
+    }
+
+    @Test
+    public void testForceSaveReplacedFile() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+        callback(1, key, null);
+        callback(6, key, getUrl("/saved?v=1"));
+
+        DocumentModel document = getDocument();
+        document.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob("replaced", "text/plain", "UTF-8", "document.docx"));
+        session.saveDocument(document);
+        session.save();
+
+        // the session does not match the file anymore, its final save must not overwrite the new one
+        assertNotEquals(key, utils.getDocumentKey(getDocument(), null));
+        try {
+            callback(2, key, getUrl("/saved?v=2"));
+            fail("the final save of an outdated session should be rejected");
+        } catch (ConcurrentUpdateException e) {
+            // expected
+        }
+        assertEquals("replaced", getContent(getDocument()));
+    }
+
+    @Test
+    public void testForceSaveFailure() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+        callback(1, key, null);
+
+        callback(7, key, null);
+        assertEquals("original", getContent(getDocument()));
+        assertTrue(getDocument().isLocked());
+        assertEquals(0, downloads.get());
+    }
+
+    @Test
+    public void testReopenWithoutChanges() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+
+        callback(1, key, null);
+        callback(4, key, null);
+        assertFalse(getDocument().isLocked());
+
+        // opened again before any change, Document Server keeps the key
+        callback(1, key, null);
+        assertTrue(getDocument().isLocked());
+        callback(4, key, null);
+        assertFalse(getDocument().isLocked());
+    }
+
+    @Test
+    public void testDuplicateSave() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+
+        callback(1, key, null);
+        callback(2, key, getUrl("/saved?v=1"));
+        callback(2, key, getUrl("/saved?v=1"));
+
+        assertEquals("saved 1", getContent(getDocument()));
+        assertEquals(1, downloads.get());
+    }
+
+    @Test
+    public void testAsyncSaveWithoutPersistentQueue() throws Exception {
+        // the work queues of the test runtime are in memory, so the save is not acknowledged before it runs
+        Framework.getProperties().setProperty("onlyoffice.callback.async", "true");
+        configmanager.reload();
+
+        String key = utils.getDocumentKey(model, null);
+        callback(1, key, null);
+        callback(2, key, getUrl("/saved?v=1"));
+
+        assertEquals("saved 1", getContent(getDocument()));
+        assertFalse(getDocument().isLocked());
+    }
+
+    @Test
+    public void testRolledBackSave() throws Exception {
+        String key = utils.getDocumentKey(model, null);
+        callback(1, key, null);
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        callback(2, key, getUrl("/saved?v=1"));
+        TransactionHelper.setTransactionRollbackOnly();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+        assertEquals("original", getContent(getDocument()));
+
+        // the retry of the save rolled back is not a duplicate
+        callback(2, key, getUrl("/saved?v=1"));
+        assertEquals("saved 1", getContent(getDocument()));
+        assertEquals(2, downloads.get());
+    }
+
+    private void callback(int status, String key, String url) throws Exception {
+        JSONObject json = new JSONObject();
+        json.put("status", status);
+        json.put("key", key);
+        if (url != null) {
+            json.put("url", url);
+        }
+        json.put("users", new JSONArray().put("Administrator"));
+        callbackmanager.handleCallback(session, getDocument(), json);
+    }
+
+    private DocumentModel getDocument() {
+        return session.getDocument(model.getRef());
+    }
+
+    private String getContent(DocumentModel document) throws IOException {
+        return ((Blob) document.getPropertyValue("file:content")).getString();
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves a content which depends on the version in the query, as Document Server serves each save.
+     */
+    private void serve(HttpExchange exchange) throws IOException {
+        downloads.incrementAndGet();
+        try {
+            String query = exchange.getRequestURI().getQuery();
+            byte[] content = ("saved " + query.substring(query.indexOf('=') + 1)).getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
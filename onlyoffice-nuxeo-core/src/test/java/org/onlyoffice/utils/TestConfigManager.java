@@ -1,10 +1,18 @@
 package org.onlyoffice.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.pubsub.PubSubService;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -23,4 +31,49 @@ public class TestConfigManager {
     public void testService() {
         assertNotNull(configmanager);
     }
+
+    @Test
+    public void testReload() {
+        List<ConfigSnapshot> changes = new ArrayList<ConfigSnapshot>();
+        ConfigListener listener = (previous, current) -> {
+            changes.add(previous);
+            changes.add(current);
+        };
+        configmanager.addListener(listener);
+
+        ConfigSnapshot initial = configmanager.reload();
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", "http://documentserver");
+        try {
+            // the snapshot does not change until it is reloaded
+            assertSame(initial, configmanager.getSnapshot());
+
+            ConfigSnapshot current = configmanager.reload();
+            assertEquals("http://documentserver/", configmanager.getDocServUrl());
+            assertEquals(2, changes.size());
+            assertSame(initial, changes.get(0));
+            assertSame(current, changes.get(1));
+
+            // reloading the same values does not notify the listeners
+            configmanager.reload();
+            assertEquals(2, changes.size());
+        } finally {
+            Framework.getProperties().remove("onlyoffice.docserv.url");
+            configmanager.reload();
+            configmanager.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void testReloadFromOtherNode() {
+        configmanager.reload();
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", "http://documentserver");
+        try {
+            Framework.getService(PubSubService.class).publish(ConfigManagerImpl.RELOAD_TOPIC,
+                    "other-node".getBytes(StandardCharsets.UTF_8));
+            assertEquals("http://documentserver/", configmanager.getDocServUrl());
+        } finally {
+            Framework.getProperties().remove("onlyoffice.docserv.url");
+            configmanager.reload();
+        }
+    }
 }
@@ -0,0 +1,187 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.test.TransactionalFeature;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy({ "org.nuxeo.ecm.platform.login.token", "org.onlyoffice.onlyoffice-nuxeo-core" })
+public class TestConversionManager {
+
+    private static final byte[] CONVERTED = "converted content".getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] THUMBNAIL = "thumbnail content".getBytes(StandardCharsets.UTF_8);
+
+    @Inject
+    protected ConversionManager conversionmanager;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected TransactionalFeature txFeature;
+
+    private HttpServer server;
+
+    private final AtomicInteger conversions = new AtomicInteger();
+
+    private final Set<String> keys = ConcurrentHashMap.newKeySet();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/healthcheck", exchange -> send(exchange, "true".getBytes(StandardCharsets.UTF_8)));
+        server.createContext("/ConvertService.ashx", this::convert);
+        server.createContext("/result.docx", exchange -> send(exchange, CONVERTED));
+        server.createContext("/result.png", exchange -> send(exchange, THUMBNAIL));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", getUrl("/"));
+        Framework.getProperties().setProperty("onlyoffice.convert.formats", "doc,odt");
+        Framework.getProperties().setProperty("onlyoffice.thumbnail.enabled", "true");
+        configmanager.reload();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Framework.getProperties().remove("onlyoffice.docserv.url");
+        Framework.getProperties().remove("onlyoffice.convert.formats");
+        Framework.getProperties().remove("onlyoffice.thumbnail.enabled");
+        Framework.getProperties().remove("onlyoffice.convert.upload");
+        Framework.getProperties().remove("nuxeo.url");
+        configmanager.reload();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(conversionmanager);
+    }
+
+    @Test
+    public void testTargetExtension() {
+        assertEquals("docx", conversionmanager.getTargetExtension("doc"));
+        assertNull(conversionmanager.getTargetExtension("docx"));
+        assertNull(conversionmanager.getTargetExtension("xls"));
+    }
+
+    @Test
+    public void testConvertOnce() throws IOException {
+        assertNull(conversionmanager.getConverted("digest", "doc"));
+
+        File file = conversionmanager.convert("digest", "doc", getUrl("/source.doc"));
+        assertArrayEquals(CONVERTED, Files.readAllBytes(file.toPath()));
+        // the first answer of the stand-in reports a conversion in progress
+        assertEquals(2, conversions.get());
+
+        assertEquals(file, conversionmanager.convert("digest", "doc", getUrl("/source.doc")));
+        assertEquals(file, conversionmanager.getConverted("digest", "doc"));
+        assertEquals(2, conversions.get());
+    }
+
+    @Test
+    public void testThumbnail() throws IOException {
+        assertNull(conversionmanager.getThumbnail("thumbnail-digest", "docx"));
+
+        File file = conversionmanager.createThumbnail("thumbnail-digest", "docx", getUrl("/source.docx"));
+        assertArrayEquals(THUMBNAIL, Files.readAllBytes(file.toPath()));
+        assertEquals(file, conversionmanager.getThumbnail("thumbnail-digest", "docx"));
+        assertNull(conversionmanager.getConverted("thumbnail-digest", "docx"));
+    }
+
+    @Test
+    public void testConvertOnUpload() throws IOException {
+        Framework.getProperties().setProperty("onlyoffice.convert.upload", "true");
+        Framework.getProperties().setProperty("nuxeo.url", "http://localhost:8080/nuxeo");
+        configmanager.reload();
+
+        DocumentModel model = session.createDocumentModel("/", "legacy", "File");
+        model.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob("legacy content", "application/msword", null, "legacy.doc"));
+        model = session.createDocument(model);
+        // converted once the upload is committed
+        txFeature.nextTransaction();
+
+        String digest = ((Blob) model.getPropertyValue("file:content")).getDigest();
+        File file = conversionmanager.getConverted(digest, "doc");
+        assertNotNull(file);
+        assertArrayEquals(CONVERTED, Files.readAllBytes(file.toPath()));
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Reports the first request of a conversion key as in progress and the next ones as done.
+     */
+    private void convert(HttpExchange exchange) throws IOException {
+        conversions.incrementAndGet();
+        try {
+            JSONObject request = new JSONObject(IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8));
+            JSONObject result = new JSONObject();
+            if (keys.add(request.getString("key"))) {
+                result.put("endConvert", false);
+                result.put("percent", 50);
+            } else {
+                result.put("endConvert", true);
+                result.put("percent", 100);
+                result.put("fileUrl", getUrl("/result." + request.getString("outputtype")));
+            }
+            send(exchange, result.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void send(HttpExchange exchange, byte[] content) throws IOException {
+        try {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class TestDedupWindow {
+
+    @Test
+    public void testClaim() {
+        DedupWindow window = new DedupWindow(60000, 10);
+
+        assertTrue(window.claim("a"));
+        assertFalse(window.claim("a"));
+        assertTrue(window.claim("b"));
+        assertEquals(2, window.size());
+    }
+
+    @Test
+    public void testRelease() {
+        DedupWindow window = new DedupWindow(60000, 10);
+
+        assertTrue(window.claim("a"));
+        window.release("a");
+        assertTrue(window.claim("a"));
+    }
+
+    @Test
+    public void testExpiry() throws InterruptedException {
+        DedupWindow window = new DedupWindow(50, 10);
+
+        assertTrue(window.claim("a"));
+        Thread.sleep(100);
+        assertTrue(window.claim("a"));
+        assertEquals(1, window.size());
+    }
+
+    @Test
+    public void testMaxSize() {
+        DedupWindow window = new DedupWindow(60000, 2);
+
+        window.claim("a");
+        window.claim("b");
+        window.claim("c");
+
+        assertEquals(2, window.size());
+        assertTrue(window.claim("a"));
+        assertFalse(window.claim("c"));
+    }
+}
@@ -0,0 +1,171 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestDownloadManager {
+
+    private static final byte[] CONTENT = new byte[3 * 1024 * 1024];
+
+    static {
+        new Random(0).nextBytes(CONTENT);
+    }
+
+    @Inject
+    protected DownloadManager downloadmanager;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Inject
+    protected HealthMonitor healthmonitor;
+
+    private HttpServer server;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        Framework.getProperties().setProperty("onlyoffice.download.timeout.read", "1000");
+        Framework.getProperties().setProperty("onlyoffice.download.retry.delay", "10");
+        // no Document Server runs during the tests, its health checks would disable the retries
+        Framework.getProperties().setProperty("onlyoffice.health.enabled", "false");
+        configmanager.reload();
+
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/truncated", exchange -> serve(exchange, requests.incrementAndGet() == 1 ? CONTENT.length / 2 : -1, 0));
+        server.createContext("/healthcheck", exchange -> {
+            exchange.sendResponseHeaders(500, -1);
+            exchange.close();
+        });
+        server.createContext("/slow", exchange -> serve(exchange, -1, requests.incrementAndGet() == 1 ? 3000 : 0));
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Framework.getProperties().remove("onlyoffice.download.timeout.read");
+        Framework.getProperties().remove("onlyoffice.download.retry.delay");
+        Framework.getProperties().remove("onlyoffice.health.enabled");
+        Framework.getProperties().remove("onlyoffice.health.interval");
+        Framework.getProperties().remove("onlyoffice.docserv.url");
+        configmanager.reload();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(downloadmanager);
+    }
+
+    @Test
+    public void testResumeTruncatedDownload() throws IOException {
+        Blob blob = downloadmanager.download(getUrl("/truncated"), "application/octet-stream", null, "large.pptx");
+
+        assertEquals(2, requests.get());
+        assertArrayEquals(CONTENT, Files.readAllBytes(blob.getFile().toPath()));
+        assertEquals(DigestUtils.md5Hex(CONTENT), blob.getDigest());
+    }
+
+    @Test
+    public void testRetrySlowDownload() throws IOException {
+        Blob blob = downloadmanager.download(getUrl("/slow"), "application/octet-stream", null, "large.pptx");
+
+        assertEquals(2, requests.get());
+        assertEquals(CONTENT.length, blob.getLength());
+    }
+
+    @Test
+    public void testNoRetryWhileDocumentServerIsDown() {
+        Framework.getProperties().setProperty("onlyoffice.health.enabled", "true");
+        Framework.getProperties().setProperty("onlyoffice.health.interval", "3600");
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", getUrl("/"));
+        configmanager.reload();
+
+        for (int i = 0; i < configmanager.getHealthFailures(); i++) {
+            healthmonitor.check();
+        }
+        assertFalse(healthmonitor.isAvailable());
+
+        try {
+            downloadmanager.download(getUrl("/truncated"), "application/octet-stream", null, "large.pptx");
+            fail("The interrupted download should not be retried");
+        } catch (IOException e) {
+            assertEquals(1, requests.get());
+        }
+    }
+
+    private String getUrl(String path) {
+        return "http://localhost:" + server.getAddress().getPort() + path;
+    }
+
+    /**
+     * Serves the content, honoring Range requests, optionally after a delay or cut after the given number of bytes.
+     */
+    private void serve(HttpExchange exchange, int cutAfter, long delay) throws IOException {
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+
+            int start = 0;
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            if (range != null) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (CONTENT.length - 1) + "/" + CONTENT.length);
+            }
+
+            exchange.getResponseHeaders().set("ETag", "\"content\"");
+            exchange.getResponseHeaders().set("Content-MD5",
+                    Base64.getEncoder().encodeToString(DigestUtils.md5(CONTENT)));
+            exchange.sendResponseHeaders(range != null ? 206 : 200, CONTENT.length - start);
+
+            OutputStream output = exchange.getResponseBody();
+            output.write(CONTENT, start, cutAfter >= 0 ? cutAfter : CONTENT.length - start);
+            output.flush();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // the client went away
+        } finally {
+            try {
+                exchange.close();
+            } catch (RuntimeException e) {
+                // truncated responses cannot be closed cleanly
+            }
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestEditorConfigManager {
+
+    private static final String BASE_URL = "http://localhost:8080";
+
+    @Inject
+    protected EditorConfigManager editorconfigmanager;
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected Utils utils;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Inject
+    protected JwtManager jwtmanager;
+
+    private DocumentModel model;
+
+    @Before
+    public void setUp() {
+        model = session.createDocumentModel("/", "document", "File");
+        model.setPropertyValue("file:content",
+                (Serializable) Blobs.createBlob("content", "text/plain", "UTF-8", "document.docx"));
+        model.setPropertyValue("files:files", (Serializable) Arrays.asList(
+                createAttachment("first", "first.docx"), createAttachment("second", "second.xlsx")));
+        model = session.createDocument(model);
+        session.save();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(editorconfigmanager);
+    }
+
+    @Test
+    public void testConfig() throws Exception {
+        JSONObject config = new JSONObject(
+                editorconfigmanager.getConfig(model, "user1", BASE_URL, "en-US", "token", "edit", null, null));
+
+        JSONObject document = config.getJSONObject("document");
+        assertEquals(utils.getDocumentKey(model, null), document.getString("key"));
+        assertEquals("docx", document.getString("fileType"));
+        assertEquals(BASE_URL + "/nuxeo/nxfile/" + session.getRepositoryName() + "/" + model.getId()
+                + "/file:content/document.docx?token=token", document.getString("url"));
+        assertTrue(document.getJSONObject("permissions").getBoolean("edit"));
+
+        JSONObject editorConfig = config.getJSONObject("editorConfig");
+        assertEquals("edit", editorConfig.getString("mode"));
+        assertEquals("user1", editorConfig.getJSONObject("user").getString("id"));
+        assertEquals(BASE_URL + "/nuxeo/api/v1/onlyoffice/callback/" + model.getId() + "?token=token",
+                editorConfig.getString("callbackUrl"));
+        assertFalse(config.has("token"));
+    }
+
+    @Test
+    public void testReloadedSecret() throws Exception {
+        try {
+            Framework.getProperties().setProperty("onlyoffice.jwt.secret", "first");
+            configmanager.reload();
+            String first = new JSONObject(
+                    editorconfigmanager.getConfig(model, "user1", BASE_URL, "en-US", "token", "edit", null, null))
+                            .getString("token");
+
+            // the config cached with the previous secret is not served anymore
+            Framework.getProperties().setProperty("onlyoffice.jwt.secret", "second");
+            configmanager.reload();
+            String second = new JSONObject(
+                    editorconfigmanager.getConfig(model, "user1", BASE_URL, "en-US", "token", "edit", null, null))
+                            .getString("token");
+
+            assertFalse(jwtmanager.verify(first));
+            assertTrue(jwtmanager.verify(second));
+        } finally {
+            Framework.getProperties().remove("onlyoffice.jwt.secret");
+            configmanager.reload();
+        }
+    }
+
+    @Test
+    public void testView() throws Exception {
+        JSONObject config = editorconfigmanager.buildConfig(model, "user1", BASE_URL, "en-US", "token", "view", null,
+                null, null);
+
+        assertEquals("view", config.getJSONObject("editorConfig").getString("mode"));
+        assertFalse(config.getJSONObject("document").getJSONObject("permissions").getBoolean("edit"));
+    }
+
+    @Test
+    public void testAttachmentWithoutDigest() throws Exception {
+        try {
+            editorconfigmanager.getConfig(model, "user1", BASE_URL, "en-US", "token", "edit", "0", null);
+            fail("an attachment cannot be opened without its digest");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Digest is null", e.getMessage());
+        }
+    }
+
+    @Test
+    public void testAllConfigs() throws Exception {
+        JSONArray configs = getConfigs(Collections.<String>emptyList(), Collections.<String>emptyList());
+
+        assertEquals(2, configs.length());
+        for (int i = 0; i < configs.length(); i++) {
+            JSONObject item = configs.getJSONObject(i);
+            assertEquals(i, item.getInt("index"));
+            assertEquals(getDigest(i), item.getString("digest"));
+            assertEquals(utils.getDocumentKey(model, String.valueOf(i)),
+                    item.getJSONObject("config").getJSONObject("document").getString("key"));
+        }
+    }
+
+    @Test
+    public void testConfigsByIndex() throws Exception {
+        JSONArray configs = getConfigs(Arrays.asList("1"), Collections.<String>emptyList());
+
+        assertEquals(1, configs.length());
+        JSONObject item = configs.getJSONObject(0);
+        assertEquals(1, item.getInt("index"));
+        assertEquals(getDigest(1), item.getString("digest"));
+        assertEquals("second.xlsx", item.getJSONObject("config").getJSONObject("document").getString("title"));
+    }
+
+    @Test
+    public void testConfigsByDigest() throws Exception {
+        JSONArray configs = getConfigs(Collections.<String>emptyList(), Arrays.asList(getDigest(1), "unknown"));
+
+        assertEquals(2, configs.length());
+        assertEquals(1, configs.getJSONObject(0).getInt("index"));
+        assertTrue(configs.getJSONObject(0).has("config"));
+
+        JSONObject unknown = configs.getJSONObject(1);
+        assertFalse(unknown.has("index"));
+        assertFalse(unknown.has("config"));
+        assertEquals("Unknown attachment", unknown.getString("error"));
+    }
+
+    @Test
+    public void testConfigsErrors() throws Exception {
+        JSONArray configs = getConfigs(Arrays.asList("0", "5", "1"), Arrays.asList("wrong"));
+
+        assertEquals(3, configs.length());
+        assertEquals("Digest is incorrect", configs.getJSONObject(0).getString("error"));
+        assertEquals("Digest is null", configs.getJSONObject(1).getString("error"));
+        // an attachment which cannot be opened does not fail the others
+        assertTrue(configs.getJSONObject(2).has("config"));
+    }
+
+    @Test(expected = NumberFormatException.class)
+    public void testConfigsInvalidIndex() throws Exception {
+        getConfigs(Arrays.asList("first"), Collections.<String>emptyList());
+    }
+
+    private JSONArray getConfigs(List<String> indexes, List<String> digests) throws Exception {
+        return editorconfigmanager.getConfigs(session.getDocument(model.getRef()), "user1", BASE_URL, "en-US",
+                "token", "edit", indexes, digests);
+    }
+
+    private String getDigest(int index) {
+        return ((Blob) model.getPropertyValue("files:files/" + index + "/file")).getDigest();
+    }
+
+    private Map<String, Serializable> createAttachment(String content, String filename) {
+        Map<String, Serializable> attachment = new HashMap<String, Serializable>();
+        attachment.put("file", (Serializable) Blobs.createBlob(content, "text/plain", "UTF-8", filename));
+        return attachment;
+    }
+}
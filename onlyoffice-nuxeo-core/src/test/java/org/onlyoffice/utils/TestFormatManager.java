@@ -0,0 +1,42 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestFormatManager {
+
+    @Inject
+    protected FormatManager formatmanager;
+
+    @Test
+    public void testService() {
+        assertNotNull(formatmanager);
+    }
+
+    @Test
+    public void testLookup() {
+        assertEquals("text", formatmanager.getFormat("docx").getType());
+        assertTrue(formatmanager.getFormat("docx").isEditable());
+        assertFalse(formatmanager.getFormat("doc").isEditable());
+        assertEquals("spreadsheet", formatmanager.getFormat(".XLSX").getType());
+
+        // exact match only, partial extensions used to match the old lookup strings
+        assertNull(formatmanager.getFormat("oc"));
+        assertNull(formatmanager.getFormat("zip"));
+    }
+}
@@ -0,0 +1,131 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.onlyoffice.utils.HealthStatus.State;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy("org.onlyoffice.onlyoffice-nuxeo-core")
+public class TestHealthMonitor {
+
+    @Inject
+    protected HealthMonitor healthmonitor;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    private HttpServer server;
+
+    private volatile int code = 200;
+
+    private volatile long delay;
+
+    @Before
+    public void setUp() throws Exception {
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/healthcheck", this::healthcheck);
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", "http://localhost:" + server.getAddress().getPort());
+        Framework.getProperties().setProperty("onlyoffice.health.interval", "3600");
+        Framework.getProperties().setProperty("onlyoffice.health.failures", "2");
+        Framework.getProperties().setProperty("onlyoffice.health.slow", "100");
+        configmanager.reload();
+
+        // the new server is checked once right away, the next background check is an hour later
+        for (int i = 0; i < 100 && healthmonitor.getStatus().getState() == State.UNKNOWN; i++) {
+            Thread.sleep(50);
+        }
+        assertEquals(State.UP, healthmonitor.getStatus().getState());
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        Framework.getProperties().remove("onlyoffice.docserv.url");
+        Framework.getProperties().remove("onlyoffice.health.interval");
+        Framework.getProperties().remove("onlyoffice.health.failures");
+        Framework.getProperties().remove("onlyoffice.health.slow");
+        configmanager.reload();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(healthmonitor);
+    }
+
+    @Test
+    public void testCircuit() {
+        code = 500;
+        HealthStatus status = healthmonitor.check();
+        // a single failure does not open the circuit
+        assertEquals(State.UP, status.getState());
+        assertEquals(1, status.getFailures());
+        assertTrue(healthmonitor.isAvailable());
+
+        status = healthmonitor.check();
+        assertEquals(State.DOWN, status.getState());
+        assertFalse(healthmonitor.isAvailable());
+        assertNotNull(status.getError());
+
+        code = 200;
+        status = healthmonitor.check();
+        assertEquals(State.UP, status.getState());
+        assertEquals(0, status.getFailures());
+        assertTrue(healthmonitor.isAvailable());
+    }
+
+    @Test
+    public void testSlowServer() {
+        delay = 300;
+        // the average of the latency only crosses the threshold after a few slow answers
+        HealthStatus status = healthmonitor.getStatus();
+        for (int i = 0; i < 5 && status.getState() == State.UP; i++) {
+            status = healthmonitor.check();
+        }
+        assertEquals(State.DEGRADED, status.getState());
+        assertTrue(healthmonitor.isAvailable());
+        assertTrue(status.getLatency() > 100);
+    }
+
+    private void healthcheck(HttpExchange exchange) throws IOException {
+        try {
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            byte[] content = (code == 200 ? "true" : "false").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(code, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            exchange.close();
+        }
+    }
+}
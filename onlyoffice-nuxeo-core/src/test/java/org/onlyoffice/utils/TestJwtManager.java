@@ -1,10 +1,14 @@
 package org.onlyoffice.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import org.json.JSONObject;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.api.Framework;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
 import org.nuxeo.runtime.test.runner.FeaturesRunner;
@@ -19,8 +23,33 @@ public class TestJwtManager {
     @Inject
     protected JwtManager jwtmanager;
 
+    @Inject
+    protected ConfigManager configmanager;
+
     @Test
     public void testService() {
         assertNotNull(jwtmanager);
     }
+
+    @Test
+    public void testVerifyAndDecode() throws Exception {
+        Framework.getProperties().setProperty("onlyoffice.jwt.secret", "secret");
+        configmanager.reload();
+        try {
+            JSONObject payload = new JSONObject();
+            payload.put("status", 2);
+            payload.put("key", "key");
+
+            String token = jwtmanager.createToken(payload);
+            assertEquals(2, jwtmanager.verifyAndDecode(token).getInt("status"));
+            assertNull(jwtmanager.verifyAndDecode(token + "x"));
+            assertNull(jwtmanager.verifyAndDecode(token.substring(0, token.lastIndexOf('.'))));
+
+            payload.put("exp", System.currentTimeMillis() / 1000 - 3600);
+            assertNull(jwtmanager.verifyAndDecode(jwtmanager.createToken(payload)));
+        } finally {
+            Framework.getProperties().remove("onlyoffice.jwt.secret");
+            configmanager.reload();
+        }
+    }
 }
@@ -0,0 +1,84 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+
+public class TestSavePolicy {
+
+    private static final long NOW = 1000000;
+
+    @Test
+    public void testCoalesceWindow() {
+        SavePolicy policy = new SavePolicy(1000, 0, 0, 10);
+
+        assertTrue(policy.shouldVersion("doc", NOW));
+        policy.saved("doc", true, NOW);
+
+        assertFalse(policy.shouldVersion("doc", NOW + 500));
+        policy.saved("doc", false, NOW + 500);
+
+        // the window starts again from the last save
+        assertFalse(policy.shouldVersion("doc", NOW + 1200));
+        assertTrue(policy.shouldVersion("doc", NOW + 1500));
+        assertTrue(policy.shouldVersion("other", NOW + 500));
+    }
+
+    @Test
+    public void testVersionSaves() {
+        SavePolicy policy = new SavePolicy(0, 3, 0, 10);
+
+        assertFalse(policy.shouldVersion("doc", NOW));
+        policy.saved("doc", false, NOW);
+        assertFalse(policy.shouldVersion("doc", NOW));
+        policy.saved("doc", false, NOW);
+        assertTrue(policy.shouldVersion("doc", NOW));
+        policy.saved("doc", true, NOW);
+
+        assertFalse(policy.shouldVersion("doc", NOW));
+    }
+
+    @Test
+    public void testVersionInterval() {
+        SavePolicy policy = new SavePolicy(0, 0, 60000, 10);
+
+        assertTrue(policy.shouldVersion("doc", NOW));
+        policy.saved("doc", true, NOW);
+
+        assertFalse(policy.shouldVersion("doc", NOW + 30000));
+        policy.saved("doc", false, NOW + 30000);
+
+        // counted from the last version, not from the last save
+        assertTrue(policy.shouldVersion("doc", NOW + 60000));
+    }
+
+    @Test
+    public void testMaxSize() {
+        SavePolicy policy = new SavePolicy(0, 2, 0, 1);
+
+        policy.saved("doc", false, NOW);
+        assertTrue(policy.shouldVersion("doc", NOW));
+
+        // the state of the least recently saved document is dropped
+        policy.saved("other", false, NOW);
+        assertFalse(policy.shouldVersion("doc", NOW));
+        assertTrue(policy.shouldVersion("other", NOW));
+    }
+
+    @Test
+    public void testUnchanged() {
+        assertTrue(SavePolicy.isUnchanged(newBlob("a"), newBlob("a")));
+        assertFalse(SavePolicy.isUnchanged(newBlob("a"), newBlob("b")));
+        assertFalse(SavePolicy.isUnchanged(null, newBlob("a")));
+        assertFalse(SavePolicy.isUnchanged(newBlob(null), newBlob(null)));
+    }
+
+    private Blob newBlob(String digest) {
+        Blob blob = Blobs.createBlob("content");
+        blob.setDigest(digest);
+        return blob;
+    }
+}
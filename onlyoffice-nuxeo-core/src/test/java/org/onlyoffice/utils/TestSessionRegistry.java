@@ -0,0 +1,229 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.core.api.Lock;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.runtime.kv.KeyValueService;
+import org.nuxeo.runtime.kv.KeyValueStore;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy({ "org.nuxeo.runtime.kv", "org.onlyoffice.onlyoffice-nuxeo-core" })
+public class TestSessionRegistry {
+
+    @Inject
+    protected SessionRegistry sessionregistry;
+
+    @Inject
+    protected KeyValueService keyValueService;
+
+    @Inject
+    protected CoreSession session;
+
+    @Test
+    public void testService() {
+        assertNotNull(sessionregistry);
+    }
+
+    @Test
+    public void testTransitions() {
+        assertTrue(sessionregistry.join("doc", "key", Arrays.asList("user1")));
+        assertFalse(sessionregistry.join("doc", "key", Arrays.asList("user1", "user2")));
+        assertFalse(sessionregistry.join("doc", "key-a0", Arrays.asList("user3")));
+
+        assertFalse(sessionregistry.leave("doc", "key"));
+        assertTrue(sessionregistry.leave("doc", "key-a0"));
+        assertTrue(sessionregistry.leave("other", "unknown"));
+    }
+
+    @Test
+    public void testStaleSessions() throws InterruptedException {
+        SessionStore store = new MemorySessionStore(10);
+        store.join("doc", "key", Arrays.asList("user1"));
+        store.join("doc", "key-a0", Arrays.asList("user2"));
+        store.join("other", "other-key", Arrays.asList("user3"));
+        Thread.sleep(10);
+        store.join("doc", "key", Arrays.asList("user1"));
+
+        assertEquals(Arrays.asList("other"), new ArrayList<String>(store.cleanup(5)));
+        assertEquals(1, store.getSessionCount().intValue());
+        assertTrue(store.leave("doc", "key"));
+    }
+
+    @Test
+    public void testHeartbeat() throws InterruptedException {
+        KeyValueStore kv = keyValueService.getKeyValueStore("onlyoffice-test");
+        for (SessionStore store : Arrays.asList(new MemorySessionStore(10), new KeyValueSessionStore(kv, 60000))) {
+            store.join("heartbeat", "heartbeat-key", Arrays.asList("user1"));
+            Thread.sleep(200);
+            // a save callback without any user coming or going keeps the session alive
+            store.touch("heartbeat", "heartbeat-key");
+
+            assertFalse(store.cleanup(100).contains("heartbeat"));
+            assertTrue(store.leave("heartbeat", "heartbeat-key"));
+        }
+    }
+
+    @Test
+    public void testNoTimeout() throws InterruptedException {
+        DocumentModel model = session.createDocumentModel("/", "document", "File");
+        model = session.createDocument(model);
+        session.setLock(model.getRef());
+        session.save();
+        sessionregistry.join(model.getId(), "long", Arrays.asList("Administrator"));
+
+        Thread.sleep(10);
+        ((SessionRegistryImpl) sessionregistry).cleanup(0);
+
+        assertTrue(session.getDocument(model.getRef()).isLocked());
+        assertTrue(sessionregistry.leave(model.getId(), "long"));
+    }
+
+    @Test
+    public void testStaleSessionUnlock() throws InterruptedException {
+        DocumentModel model = session.createDocumentModel("/", "document", "File");
+        model = session.createDocument(model);
+        Lock lock = session.setLock(model.getRef());
+        session.save();
+        sessionregistry.join(model.getId(), "stale", Arrays.asList("Administrator"));
+        sessionregistry.putLock(model.getId(), lock);
+
+        Thread.sleep(10);
+        ((SessionRegistryImpl) sessionregistry).cleanup(5);
+
+        assertFalse(session.getDocument(model.getRef()).isLocked());
+        assertEquals(0, sessionregistry.getSessionCount().intValue());
+    }
+
+    @Test
+    public void testStaleSessionKeepsOtherLock() throws InterruptedException {
+        DocumentModel model = session.createDocumentModel("/", "document", "File");
+        model = session.createDocument(model);
+        Lock lock = session.setLock(model.getRef());
+        session.save();
+        sessionregistry.join(model.getId(), "stale", Arrays.asList("Administrator"));
+        sessionregistry.putLock(model.getId(), lock);
+
+        // the lock is removed and set again in Nuxeo while the editing session is silent
+        Thread.sleep(10);
+        session.removeLock(model.getRef());
+        session.setLock(model.getRef());
+        session.save();
+
+        Thread.sleep(10);
+        ((SessionRegistryImpl) sessionregistry).cleanup(5);
+
+        assertTrue(session.getDocument(model.getRef()).isLocked());
+        assertEquals(0, sessionregistry.getSessionCount().intValue());
+    }
+
+    @Test
+    public void testSharedStaleSessionUnlock() throws InterruptedException {
+        DocumentModel model = session.createDocumentModel("/", "document", "File");
+        model = session.createDocument(model);
+        Lock lock = session.setLock(model.getRef());
+        session.save();
+
+        KeyValueStore store = keyValueService.getKeyValueStore("onlyoffice-test");
+        SessionStore node1 = new KeyValueSessionStore(store, 60000);
+        SessionStore node2 = new KeyValueSessionStore(store, 60000);
+        node1.join(model.getId(), "stale", Arrays.asList("Administrator"));
+        node1.join("active", "active-key", Arrays.asList("user1"));
+
+        Thread.sleep(200);
+        node1.join("active", "active-key", Arrays.asList("user1"));
+        SessionRegistryImpl registry = (SessionRegistryImpl) sessionregistry;
+        registry.setStore(node2);
+        try {
+            registry.putLock(model.getId(), lock);
+            registry.cleanup(100);
+        } finally {
+            registry.setStore(null);
+        }
+
+        assertFalse(session.getDocument(model.getRef()).isLocked());
+        assertTrue(node2.getParticipants("stale").isEmpty());
+        // the document is released by a single node, and the active one is kept
+        Collection<String> released = node1.cleanup(100);
+        assertFalse(released.contains(model.getId()));
+        assertFalse(released.contains("active"));
+        assertFalse(node1.join("active", "active-key-a0", Arrays.asList("user2")));
+    }
+
+    @Test
+    public void testSharedStore() {
+        // two nodes sharing the in-memory key/value store, which stands in for Redis
+        KeyValueStore store = keyValueService.getKeyValueStore("onlyoffice-test");
+        SessionStore node1 = new KeyValueSessionStore(store, 60000);
+        SessionStore node2 = new KeyValueSessionStore(store, 60000);
+
+        assertTrue(node1.join("doc", "key", Arrays.asList("user1")));
+        assertFalse(node2.join("doc", "key", Arrays.asList("user1", "user2")));
+        assertFalse(node2.join("doc", "key-a0", Arrays.asList("user3")));
+        assertEquals(2, node1.getParticipants("key").size());
+
+        assertFalse(node2.leave("doc", "key"));
+        assertTrue(node1.leave("doc", "key-a0"));
+        assertTrue(node2.leave("other", "unknown"));
+    }
+
+    @Test
+    public void testSharedCallbacks() {
+        KeyValueStore store = keyValueService.getKeyValueStore("onlyoffice-test");
+        SessionStore node1 = new KeyValueSessionStore(store, 60000);
+        SessionStore node2 = new KeyValueSessionStore(store, 60000);
+
+        // a save retried on another node is recognized
+        assertTrue(node1.claim("doc|2|key", 60000));
+        assertFalse(node2.claim("doc|2|key", 60000));
+
+        // a failed save is released so that its retry runs
+        node1.release("doc|2|key");
+        assertTrue(node2.claim("doc|2|key", 60000));
+    }
+
+    @Test
+    public void testConcurrentJoins() throws Exception {
+        KeyValueStore store = keyValueService.getKeyValueStore("onlyoffice-test");
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Boolean>> joins = new ArrayList<Future<Boolean>>();
+            for (int i = 0; i < 8; i++) {
+                SessionStore node = new KeyValueSessionStore(store, 60000);
+                String key = "concurrent-" + i;
+                joins.add(executor.submit(() -> node.join("concurrent", key, Arrays.asList("user"))));
+            }
+
+            int first = 0;
+            for (Future<Boolean> join : joins) {
+                if (join.get()) {
+                    first++;
+                }
+            }
+            assertEquals(1, first);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
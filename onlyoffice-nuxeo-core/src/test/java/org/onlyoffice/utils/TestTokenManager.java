@@ -0,0 +1,116 @@
+package org.onlyoffice.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.platform.test.PlatformFeature;
+import org.nuxeo.ecm.tokenauth.service.TokenAuthenticationService;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+
+import javax.inject.Inject;
+
+@RunWith(FeaturesRunner.class)
+@Features({ PlatformFeature.class })
+@Deploy({ "org.nuxeo.ecm.platform.login.token", "org.onlyoffice.onlyoffice-nuxeo-core" })
+public class TestTokenManager {
+
+    @Inject
+    protected TokenManager tokenmanager;
+
+    @Inject
+    protected ConfigManager configmanager;
+
+    @Inject
+    protected TokenAuthenticationService authService;
+
+    @After
+    public void tearDown() {
+        Framework.getProperties().remove("onlyoffice.token.cache.size");
+        Framework.getProperties().remove("onlyoffice.token.timeout");
+        configmanager.reload();
+    }
+
+    @Test
+    public void testService() {
+        assertNotNull(tokenmanager);
+    }
+
+    @Test
+    public void testReuse() throws Exception {
+        String token = tokenmanager.getToken("user1");
+
+        assertEquals(token, tokenmanager.getToken("user1"));
+        assertEquals("user1", authService.getUserName(token));
+    }
+
+    @Test
+    public void testEvictionKeepsToken() throws Exception {
+        Framework.getProperties().setProperty("onlyoffice.token.cache.size", "1");
+        configmanager.reload();
+
+        String token = tokenmanager.getToken("user1");
+        tokenmanager.getToken("user2");
+        getManager().cleanup(System.currentTimeMillis());
+
+        // still in the callback url of an open editor
+        assertEquals("user1", authService.getUserName(token));
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        String token = tokenmanager.getToken("user1");
+        getManager().cleanup(System.currentTimeMillis() + configmanager.getTokenMaxAge() + 1);
+
+        assertNull(authService.getUserName(token));
+        String renewed = tokenmanager.getToken("user1");
+        assertNotEquals(token, renewed);
+        assertEquals("user1", authService.getUserName(renewed));
+    }
+
+    @Test
+    public void testTimeout() throws Exception {
+        Framework.getProperties().setProperty("onlyoffice.token.timeout", "0");
+        configmanager.reload();
+
+        try {
+            tokenmanager.getToken("user1");
+            fail("the token should not be issued in time");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        // the late token is revoked once expired, it must not be handed out by the timed out request
+        waitForRevocation("user1");
+
+        Framework.getProperties().remove("onlyoffice.token.timeout");
+        configmanager.reload();
+
+        String token = tokenmanager.getToken("user1");
+        assertEquals("user1", authService.getUserName(token));
+    }
+
+    private void waitForRevocation(String user) throws InterruptedException {
+        for (int i = 0; i < 100 && authService.getTokenBindings(user).isEmpty(); i++) {
+            Thread.sleep(50);
+        }
+        for (int i = 0; i < 100 && !authService.getTokenBindings(user).isEmpty(); i++) {
+            getManager().cleanup(System.currentTimeMillis() + configmanager.getTokenMaxAge() + 1);
+            Thread.sleep(50);
+        }
+    }
+
+    private TokenManagerImpl getManager() {
+        return (TokenManagerImpl) tokenmanager;
+    }
+}
@@ -1,9 +1,22 @@
 package org.onlyoffice.utils;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blob;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.platform.test.PlatformFeature;
 import org.nuxeo.runtime.test.runner.Deploy;
 import org.nuxeo.runtime.test.runner.Features;
@@ -19,8 +32,75 @@ public class TestUtils {
     @Inject
     protected Utils utils;
 
+    @Inject
+    protected CoreSession session;
+
+    private DocumentModel model;
+
+    @Before
+    public void setUp() {
+        model = session.createDocumentModel("/", "document", "File");
+        model.setPropertyValue("files:files", (Serializable) Arrays.asList(
+                createAttachment("first", "first.docx"), createAttachment("second", "second.xlsx")));
+        model = session.createDocument(model);
+        session.save();
+    }
+
     @Test
     public void testService() {
         assertNotNull(utils);
     }
+
+    @Test
+    public void testAttachmentIndexHint() {
+        assertEquals(1, utils.getAttachmentIndex(model, getDigest(model, 1), "1").intValue());
+    }
+
+    @Test
+    public void testAttachmentIndexStaleHint() {
+        // the hint points to another attachment, the digest is looked up instead
+        assertEquals(1, utils.getAttachmentIndex(model, getDigest(model, 1), "0").intValue());
+        assertEquals(0, utils.getAttachmentIndex(model, getDigest(model, 0), "5").intValue());
+        assertEquals(0, utils.getAttachmentIndex(model, getDigest(model, 0), "first").intValue());
+    }
+
+    @Test
+    public void testAttachmentIndexUnknownDigest() {
+        assertNull(utils.getAttachmentIndex(model, "unknown", "0"));
+        assertNull(utils.getAttachmentIndex(model, "unknown", null));
+    }
+
+    @Test
+    public void testAttachmentIndexWithoutAttachments() {
+        DocumentModel folder = session.createDocument(session.createDocumentModel("/", "folder", "Folder"));
+
+        assertNull(utils.getAttachmentIndex(folder, "digest", "0"));
+        assertNull(utils.getAttachmentIndex(folder, "digest", null));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testAttachmentIndexChangeToken() {
+        String first = getDigest(model, 0);
+        assertEquals(0, utils.getAttachmentIndex(model, first, null).intValue());
+
+        // the attachments are reordered, the new change token does not reuse the cached indexes
+        List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) model.getPropertyValue("files:files");
+        model.setPropertyValue("files:files", (Serializable) Arrays.asList(files.get(1), files.get(0)));
+        session.saveDocument(model);
+        session.save();
+        DocumentModel reordered = session.getDocument(model.getRef());
+
+        assertEquals(1, utils.getAttachmentIndex(reordered, first, null).intValue());
+    }
+
+    private String getDigest(DocumentModel document, int index) {
+        return ((Blob) document.getPropertyValue("files:files/" + index + "/file")).getDigest();
+    }
+
+    private Map<String, Serializable> createAttachment(String content, String filename) {
+        Map<String, Serializable> attachment = new HashMap<String, Serializable>();
+        attachment.put("file", (Serializable) Blobs.createBlob(content, "text/plain", "UTF-8", filename));
+        return attachment;
+    }
 }
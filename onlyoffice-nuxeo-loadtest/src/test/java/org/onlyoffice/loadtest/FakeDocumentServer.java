@@ -0,0 +1,156 @@
+package org.onlyoffice.loadtest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.onlyoffice.utils.JwtManager;
+
+/**
+ * Stand-in for ONLYOFFICE Document Server: serves the edited files over HTTP and sends the callbacks the real
+ * server would send to the integration.
+ */
+public class FakeDocumentServer implements AutoCloseable {
+
+    private static final String FILES_PATH = "/files/";
+
+    private static final String HEALTHCHECK_PATH = "/healthcheck";
+
+    private final Map<String, byte[]> files = new ConcurrentHashMap<String, byte[]>();
+
+    private final AtomicLong servedBytes = new AtomicLong();
+
+    private final CloseableHttpClient client;
+
+    private final JwtManager jwtManager;
+
+    private final String authorization;
+
+    private HttpServer server;
+
+    private ExecutorService executor;
+
+    public FakeDocumentServer(CloseableHttpClient client, JwtManager jwtManager, String authorization) {
+        this.client = client;
+        this.jwtManager = jwtManager;
+        this.authorization = authorization;
+    }
+
+    public void start(int threads) throws IOException {
+        executor = Executors.newFixedThreadPool(threads);
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext(FILES_PATH, this::serveFile);
+        server.createContext(HEALTHCHECK_PATH, this::serveHealthcheck);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    @Override
+    public void close() {
+        if (server != null) {
+            server.stop(0);
+            executor.shutdownNow();
+        }
+    }
+
+    public void putFile(String name, byte[] content) {
+        files.put(name, content);
+    }
+
+    public String getUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/";
+    }
+
+    public String getFileUrl(String name, long version) {
+        return "http://localhost:" + server.getAddress().getPort() + FILES_PATH + name + "?v=" + version;
+    }
+
+    public long getServedBytes() {
+        return servedBytes.get();
+    }
+
+    public int sendCallback(String callbackUrl, int status, String key, String url, String... users) throws Exception {
+        JSONObject payload = new JSONObject();
+        payload.put("status", status);
+        payload.put("key", key);
+        if (url != null) {
+            payload.put("url", url);
+        }
+        JSONArray userList = new JSONArray();
+        for (String user : users) {
+            userList.put(user);
+        }
+        payload.put("users", userList);
+
+        JSONObject body = payload;
+        if (jwtManager != null && jwtManager.isEnabled()) {
+            body = new JSONObject();
+            body.put("token", jwtManager.createToken(payload));
+        }
+
+        HttpPost post = new HttpPost(callbackUrl);
+        post.setHeader(HttpHeaders.AUTHORIZATION, authorization);
+        post.setEntity(new StringEntity(body.toString(), ContentType.APPLICATION_JSON));
+
+        try (CloseableHttpResponse response = client.execute(post)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode();
+        }
+    }
+
+    private void serveFile(HttpExchange exchange) throws IOException {
+        try {
+            String name = exchange.getRequestURI().getPath().substring(FILES_PATH.length());
+            byte[] content = files.get(name);
+            if (content == null) {
+                byte[] message = ("Unknown file " + name).getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(404, message.length);
+                exchange.getResponseBody().write(message);
+                return;
+            }
+
+            // each version differs from the others, as the files saved by real editors do
+            String query = exchange.getRequestURI().getQuery();
+            byte[] version = (query == null ? "" : query).getBytes(StandardCharsets.UTF_8);
+
+            exchange.getResponseHeaders().set(HttpHeaders.CONTENT_TYPE, "application/octet-stream");
+            exchange.sendResponseHeaders(200, content.length + version.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+                output.write(version);
+            }
+            servedBytes.addAndGet(content.length + version.length);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void serveHealthcheck(HttpExchange exchange) throws IOException {
+        try {
+            byte[] content = "true".getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(content);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+}
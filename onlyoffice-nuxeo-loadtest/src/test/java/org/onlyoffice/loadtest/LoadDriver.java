@@ -0,0 +1,147 @@
+package org.onlyoffice.loadtest;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs an operation from several threads and reports throughput, latency percentiles and the allocation rate of
+ * the whole JVM, which includes the server threads handling the requests.
+ */
+public class LoadDriver {
+
+    public interface Operation {
+
+        /**
+         * @return true if the operation succeeded
+         */
+        boolean run(int index) throws Exception;
+    }
+
+    private final int threads;
+
+    public LoadDriver(int threads) {
+        this.threads = threads;
+    }
+
+    public Report run(String name, int operations, Operation operation) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger next = new AtomicInteger();
+        AtomicInteger errors = new AtomicInteger();
+
+        long allocatedBefore = getAllocatedBytes();
+        long start = System.nanoTime();
+
+        List<Future<long[]>> results = new ArrayList<Future<long[]>>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(() -> {
+                long[] latencies = new long[operations];
+                int count = 0;
+                int index;
+                while ((index = next.getAndIncrement()) < operations) {
+                    long opStart = System.nanoTime();
+                    boolean success;
+                    try {
+                        success = operation.run(index);
+                    } catch (Exception e) {
+                        success = false;
+                    }
+                    latencies[count++] = System.nanoTime() - opStart;
+                    if (!success) {
+                        errors.incrementAndGet();
+                    }
+                }
+                return Arrays.copyOf(latencies, count);
+            }));
+        }
+
+        long[] latencies = new long[0];
+        long elapsed;
+        long allocated;
+        try {
+            for (Future<long[]> result : results) {
+                long[] part = result.get();
+                int offset = latencies.length;
+                latencies = Arrays.copyOf(latencies, offset + part.length);
+                System.arraycopy(part, 0, latencies, offset, part.length);
+            }
+
+            // sampled while the workers are alive, the allocations of terminated threads are no longer reported
+            elapsed = System.nanoTime() - start;
+            allocated = getAllocatedBytes() - allocatedBefore;
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Arrays.sort(latencies);
+        return new Report(name, latencies, errors.get(), elapsed, allocated);
+    }
+
+    private static long getAllocatedBytes() {
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            if (allocated > 0) {
+                total += allocated;
+            }
+        }
+        return total;
+    }
+
+    public static final class Report {
+
+        private final String name;
+
+        private final long[] latencies;
+
+        private final int errors;
+
+        private final long elapsed;
+
+        private final long allocated;
+
+        private Report(String name, long[] latencies, int errors, long elapsed, long allocated) {
+            this.name = name;
+            this.latencies = latencies;
+            this.errors = errors;
+            this.elapsed = elapsed;
+            this.allocated = allocated;
+        }
+
+        public int getOperations() {
+            return latencies.length;
+        }
+
+        public int getErrors() {
+            return errors;
+        }
+
+        public double getThroughput() {
+            return latencies.length / (elapsed / 1e9);
+        }
+
+        public double getPercentileMs(double percentile) {
+            if (latencies.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return latencies[Math.max(index, 0)] / 1e6;
+        }
+
+        public double getAllocationRateMb() {
+            return allocated / (elapsed / 1e9) / (1024 * 1024);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-8s ops=%d errors=%d throughput=%.1f/s p50=%.2fms p99=%.2fms alloc=%.1fMB/s",
+                    name, getOperations(), errors, getThroughput(), getPercentileMs(50), getPercentileMs(99),
+                    getAllocationRateMb());
+        }
+    }
+}
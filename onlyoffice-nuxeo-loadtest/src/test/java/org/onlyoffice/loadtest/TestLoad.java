@@ -0,0 +1,200 @@
+package org.onlyoffice.loadtest;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.nuxeo.ecm.core.api.Blobs;
+import org.nuxeo.ecm.core.api.CoreSession;
+import org.nuxeo.ecm.core.api.DocumentModel;
+import org.nuxeo.ecm.restapi.test.RestServerFeature;
+import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.test.runner.Deploy;
+import org.nuxeo.runtime.test.runner.Features;
+import org.nuxeo.runtime.test.runner.FeaturesRunner;
+import org.nuxeo.runtime.transaction.TransactionHelper;
+import org.onlyoffice.loadtest.LoadDriver.Report;
+import org.onlyoffice.utils.ConfigManager;
+import org.onlyoffice.utils.JwtManager;
+import org.onlyoffice.utils.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+
+/**
+ * Load test of editor opens and callbacks against a stand-in Document Server. Skipped unless run with
+ * -Donlyoffice.loadtest=true.
+ */
+@RunWith(FeaturesRunner.class)
+@Features({ RestServerFeature.class })
+@Deploy({ "org.onlyoffice.onlyoffice-nuxeo-core", "org.onlyoffice.onlyoffice-nuxeo-rest" })
+public class TestLoad {
+
+    private static final Logger logger = LoggerFactory.getLogger(TestLoad.class);
+
+    private static final String SERVER_URL = "http://localhost:18090/";
+
+    private static final String USER = "Administrator";
+
+    private static final String AUTHORIZATION = "Basic "
+            + Base64.getEncoder().encodeToString((USER + ":" + USER).getBytes(StandardCharsets.UTF_8));
+
+    @Inject
+    protected CoreSession session;
+
+    @Inject
+    protected Utils utils;
+
+    @Inject
+    protected JwtManager jwtManager;
+
+    @Inject
+    protected ConfigManager configManager;
+
+    private final int threads = Integer.getInteger("onlyoffice.loadtest.threads", 16);
+
+    private final int operations = Integer.getInteger("onlyoffice.loadtest.operations", 2000);
+
+    private final int documentCount = Integer.getInteger("onlyoffice.loadtest.documents", 50);
+
+    private final int fileSize = Integer.getInteger("onlyoffice.loadtest.size", 256 * 1024);
+
+    private final String statuses = System.getProperty("onlyoffice.loadtest.statuses", "1,2,4");
+
+    private final String editorUrl = System.getProperty("onlyoffice.loadtest.editor.url", SERVER_URL + "site/onlyedit/");
+
+    private final List<DocumentModel> documents = new ArrayList<DocumentModel>();
+
+    private CloseableHttpClient client;
+
+    private FakeDocumentServer documentServer;
+
+    @Before
+    public void setUp() throws Exception {
+        Assume.assumeTrue("Load test disabled", Boolean.getBoolean("onlyoffice.loadtest"));
+
+        byte[] content = new byte[fileSize];
+        new Random(0).nextBytes(content);
+
+        for (int i = 0; i < documentCount; i++) {
+            DocumentModel model = session.createDocumentModel("/", "doc" + i, "File");
+            model.setPropertyValue("dc:title", "Load test " + i);
+            model.setPropertyValue("file:content", (Serializable) Blobs.createBlob(content,
+                    "application/vnd.openxmlformats-officedocument.wordprocessingml.document", null, "doc" + i + ".docx"));
+            documents.add(session.createDocument(model));
+        }
+        session.save();
+        TransactionHelper.commitOrRollbackTransaction();
+        TransactionHelper.startTransaction();
+
+        client = HttpClients.custom().setMaxConnTotal(threads * 2).setMaxConnPerRoute(threads * 2).build();
+
+        documentServer = new FakeDocumentServer(client, jwtManager, AUTHORIZATION);
+        documentServer.start(threads);
+        for (DocumentModel model : documents) {
+            documentServer.putFile(model.getId() + ".docx", content);
+        }
+
+        // the health checks of the stand-in keep the editor opens going
+        Framework.getProperties().setProperty("onlyoffice.docserv.url", documentServer.getUrl());
+        configManager.reload();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (documentServer != null) {
+            documentServer.close();
+        }
+        if (client != null) {
+            client.close();
+        }
+        Framework.getProperties().remove("onlyoffice.docserv.url");
+        configManager.reload();
+    }
+
+    @Test
+    public void testLoad() throws Exception {
+        LoadDriver driver = new LoadDriver(threads);
+        List<Report> reports = new ArrayList<Report>();
+
+        reports.add(driver.run("open", operations, index -> {
+            // the editor page and the config it fetches
+            String id = getDocument(index).getId();
+            return get(editorUrl + id + "?mode=edit") && get(editorUrl + id + "/config?mode=edit");
+        }));
+
+        for (String status : statuses.split(",")) {
+            int code = Integer.parseInt(status.trim());
+            reports.add(driver.run("status" + code, operations, index -> {
+                DocumentModel model = getDocument(index);
+                String callbackUrl = SERVER_URL + "api/v1/onlyoffice/callback/" + model.getId();
+                if (code != 2) {
+                    return documentServer.sendCallback(callbackUrl, code, utils.getDocumentKey(model, null), null,
+                            USER) == 200;
+                }
+
+                // Document Server edits a document in one session at a time, and each session starts from the key
+                // of the saved version, as an editor opened after the previous save
+                synchronized (model) {
+                    String key = getKey(model);
+                    // every save gets its own url and content so that it is neither a retry nor an unchanged file
+                    String url = documentServer.getFileUrl(model.getId() + ".docx", index);
+                    return documentServer.sendCallback(callbackUrl, 1, key, null, USER) == 200
+                            && documentServer.sendCallback(callbackUrl, 2, key, url, USER) == 200;
+                }
+            }));
+        }
+
+        logger.info("Load test with " + threads + " threads, " + documentCount + " documents, " + fileSize
+                + " bytes files, signed callbacks: " + jwtManager.isEnabled());
+        for (Report report : reports) {
+            logger.info(report.toString());
+            assertEquals(operations, report.getOperations());
+            assertEquals(report.toString(), 0, report.getErrors());
+        }
+        logger.info("Document server served " + documentServer.getServedBytes() + " bytes");
+    }
+
+    private boolean get(String url) throws Exception {
+        HttpGet get = new HttpGet(url);
+        get.setHeader(HttpHeaders.AUTHORIZATION, AUTHORIZATION);
+        try (CloseableHttpResponse response = client.execute(get)) {
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() == 200;
+        }
+    }
+
+    private String getKey(DocumentModel model) throws Exception {
+        HttpGet get = new HttpGet(editorUrl + model.getId() + "/config?mode=edit");
+        get.setHeader(HttpHeaders.AUTHORIZATION, AUTHORIZATION);
+        try (CloseableHttpResponse response = client.execute(get)) {
+            String body = EntityUtils.toString(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("Editor config of " + model.getId() + " not served: " + body);
+            }
+            return new JSONObject(body).getJSONObject("document").getString("key");
+        }
+    }
+
+    private DocumentModel getDocument(int index) {
+        return documents.get(index % documents.size());
+    }
+}
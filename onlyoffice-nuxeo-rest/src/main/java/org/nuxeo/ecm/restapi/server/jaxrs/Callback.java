@@ -1,33 +1,58 @@
 package org.nuxeo.ecm.restapi.server.jaxrs;
 
+import java.io.File;
 import java.io.InputStream;
-import java.io.Serializable;
-import java.net.URL;
 import java.nio.charset.Charset;
+import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
 import javax.ws.rs.*;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.ResponseBuilder;
 import javax.ws.rs.core.Response.Status;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.SharedMetricRegistries;
+import com.codahale.metrics.Snapshot;
+import com.codahale.metrics.Timer;
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.io.IOUtils;
+import org.json.JSONException;
 import org.json.JSONObject;
-import org.nuxeo.ecm.automation.core.util.DocumentHelper;
 import org.nuxeo.ecm.core.api.Blob;
-import org.nuxeo.ecm.core.api.Blobs;
 import org.nuxeo.ecm.core.api.CoreSession;
 import org.nuxeo.ecm.core.api.DocumentModel;
 import org.nuxeo.ecm.core.api.IdRef;
-import org.nuxeo.ecm.core.api.VersioningOption;
+import org.nuxeo.ecm.core.api.NuxeoPrincipal;
 import org.nuxeo.ecm.core.api.blobholder.BlobHolder;
-import org.nuxeo.ecm.core.api.model.Property;
-import org.nuxeo.ecm.core.api.versioning.VersioningService;
-import org.nuxeo.ecm.core.schema.FacetNames;
 import org.nuxeo.ecm.webengine.model.WebObject;
 import org.nuxeo.ecm.webengine.model.impl.DefaultObject;
 import org.nuxeo.runtime.api.Framework;
+import org.nuxeo.runtime.metrics.MetricsService;
+import org.onlyoffice.utils.Admission;
+import org.onlyoffice.utils.AdmissionController;
+import org.onlyoffice.utils.CallbackManager;
+import org.onlyoffice.utils.CallbackRejectedException;
+import org.onlyoffice.utils.ConfigManager;
+import org.onlyoffice.utils.ConfigSnapshot;
+import org.onlyoffice.utils.ConversionManager;
+import org.onlyoffice.utils.Format;
+import org.onlyoffice.utils.FormatManager;
+import org.onlyoffice.utils.HealthMonitor;
+import org.onlyoffice.utils.HealthStatus;
 import org.onlyoffice.utils.JwtManager;
+import org.onlyoffice.utils.TokenManager;
 import org.onlyoffice.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,7 +65,23 @@ public class Callback extends DefaultObject {
 
     private static final Logger logger = LoggerFactory.getLogger(Callback.class);
 
+    private static final String METRICS_PREFIX = "nuxeo.onlyoffice.";
+
+    private static final String QUEUE_METRICS_PREFIX = "nuxeo.works.onlyoffice-save";
+
+    private static final int FORMATS_MAX_AGE = 3600;
+
+    private static final int THUMBNAIL_MAX_AGE = 31536000;
+
+    private static final Set<Integer> CALLBACK_STATUSES = new HashSet<Integer>(Arrays.asList(0, 1, 2, 3, 4, 6, 7));
+
+    private final MetricRegistry registry = SharedMetricRegistries.getOrCreate(MetricsService.class.getName());
+
     private JwtManager jwtManager;
+    private CallbackManager callbackManager;
+    private AdmissionController admissionController;
+    private ConversionManager conversionManager;
+    private ConfigManager configManager;
     private Utils utils;
 
     @Override
@@ -48,40 +89,45 @@ public class Callback extends DefaultObject {
         super.initialize(args);
 
         jwtManager = Framework.getService(JwtManager.class);
+        callbackManager = Framework.getService(CallbackManager.class);
+        admissionController = Framework.getService(AdmissionController.class);
+        conversionManager = Framework.getService(ConversionManager.class);
+        configManager = Framework.getService(ConfigManager.class);
         utils = Framework.getService(Utils.class);
     }
 
     @POST
     @Path("callback/{id}")
     @Consumes(MediaType.APPLICATION_JSON)
-    public Object postCallback(@PathParam("id") String id, @QueryParam("digest") String digest, InputStream input) {
-        Status code = Status.OK;
+    public Object postCallback(@PathParam("id") String id, @QueryParam("digest") String digest, @QueryParam("index") String index, InputStream input) {
+        long start = System.nanoTime();
+        String status = "unknown";
+        int code = Status.OK.getStatusCode();
         Exception error = null;
+        long retryAfter = 0;
 
         try {
             JSONObject json = new JSONObject(IOUtils.toString(input, Charset.defaultCharset()));
             if (jwtManager.isEnabled()) {
                 String token = json.optString("token");
                 Boolean inBody = true;
-                
-                if (token == null || token == "") {
+
+                if (token == null || token.isEmpty()) {
                     List<String> values = getContext().getHttpHeaders().getRequestHeader("Authorization");
-                    String header = values.isEmpty() ? null : values.get(0);
+                    String header = values == null || values.isEmpty() ? null : values.get(0);
                     token = (header != null && header.startsWith("Bearer ")) ? header.substring(7) : header;
                     inBody = false;
                 }
 
-                if (token == null || token == "") {
+                if (token == null || token.isEmpty()) {
                     throw new SecurityException("Expected JWT");
                 }
 
-                if (!jwtManager.verify(token)) {
+                JSONObject bodyFromToken = jwtManager.verifyAndDecode(token);
+                if (bodyFromToken == null) {
                     throw new SecurityException("JWT verification failed");
                 }
 
-                JSONObject bodyFromToken = new JSONObject(
-                        new String(Base64.getUrlDecoder().decode(token.split("\\.")[1]), "UTF-8"));
-
                 if (inBody) {
                     json = bodyFromToken;
                 } else {
@@ -89,23 +135,43 @@ public class Callback extends DefaultObject {
                 }
             }
 
-            CoreSession session = getContext().getCoreSession();
-            DocumentModel model = session.getDocument(new IdRef(id));
-            if (digest != null) {
-                json.put("digest", digest);
+            // the status comes from the request, an unexpected one must not create a new metric
+            int callbackStatus = json.optInt("status", -1);
+            status = CALLBACK_STATUSES.contains(callbackStatus) ? String.valueOf(callbackStatus) : "unknown";
+
+            try (Admission admission = admissionController.admit(id, json.optInt("status", -1))) {
+                CoreSession session = getContext().getCoreSession();
+                DocumentModel model = session.getDocument(new IdRef(id));
+                if (digest != null) {
+                    json.put("digest", digest);
+                }
+                if (index != null) {
+                    json.put("index", index);
+                }
+                callbackManager.handleCallback(session, model, json);
             }
-            processCallback(session, model, json);
 
+        } catch (CallbackRejectedException ex) {
+            code = ex.getStatus();
+            error = ex;
+            retryAfter = ex.getRetryAfter();
+            logger.warn("Callback for document " + id + " rejected: " + ex.getMessage());
         } catch (SecurityException ex) {
-            code = Status.UNAUTHORIZED;
+            code = Status.UNAUTHORIZED.getStatusCode();
             error = ex;
             logger.error("Security error while saving document " + id, ex);
         } catch (Exception ex) {
-            code = Status.INTERNAL_SERVER_ERROR;
+            code = Status.INTERNAL_SERVER_ERROR.getStatusCode();
             error = ex;
             logger.error("Error while saving document " + id, ex);
         }
 
+        registry.timer(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "status", status))
+                .update(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (error != null) {
+            registry.counter(MetricRegistry.name("nuxeo", "onlyoffice", "callback", "error", String.valueOf(code))).inc();
+        }
+
         HashMap<String, Object> response = new HashMap<String, Object>();
         if (error != null) {
             response.put("error", 1);
@@ -115,92 +181,259 @@ public class Callback extends DefaultObject {
         }
 
         try {
-            return Response.status(code).entity(new JSONObject(response).toString(2)).build();
+            ResponseBuilder builder = Response.status(code).entity(new JSONObject(response).toString(2));
+            if (retryAfter > 0) {
+                builder.header("Retry-After", retryAfter);
+            }
+            return builder.build();
         } catch (Exception e) {
             logger.error("Error while processing callback for " + id, e);
             return Response.status(code).build();
         }
     }
 
-    private void processCallback(CoreSession session, DocumentModel model, JSONObject json) throws Exception {
-        switch (json.getInt("status")) {
-        case 0:
-            logger.error("ONLYOFFICE has reported that no doc with the specified key can be found");
-            model.removeLock();
-            break;
-        case 1:
-            if (!model.isLocked()) {
-                logger.info("Document open for editing, locking document");
-                model.setLock();
-            } else {
-                logger.debug("Document already locked, another user has entered/exited");
+    @GET
+    @Path("formats")
+    public Object getFormats(@Context Request request) {
+        FormatManager formatManager = Framework.getService(FormatManager.class);
+        boolean thumbnail = configManager.isThumbnailEnabled();
+        EntityTag tag = new EntityTag(formatManager.getFormatsVersion() + (thumbnail ? "-thumbnail" : ""));
+
+        CacheControl cacheControl = new CacheControl();
+        cacheControl.setMaxAge(FORMATS_MAX_AGE);
+
+        ResponseBuilder builder = request.evaluatePreconditions(tag);
+        if (builder == null) {
+            try {
+                // the buttons only request thumbnails when they are rendered
+                JSONObject json = new JSONObject(formatManager.getFormatsJson());
+                json.put("thumbnail", thumbnail);
+                builder = Response.ok(json.toString());
+            } catch (JSONException e) {
+                logger.error("Error while writing the formats", e);
+                return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+            }
+        }
+        return builder.tag(tag).cacheControl(cacheControl).build();
+    }
+
+    @GET
+    @Path("converted/{id}")
+    public Object getConverted(@PathParam("id") String id, @QueryParam("digest") String digest, @QueryParam("index") String index) {
+        try {
+            SourceBlob source = getBlob(id, digest, index);
+            if (source == null) {
+                return Response.status(Status.NOT_FOUND).build();
             }
-            break;
-        case 2:
-            logger.info("Document Updated, changing content");
-            model.removeLock();
-            updateDocument(session, model, json.getString("key"), json.getString("url"), json.optString("digest"));
-            break;
-        case 3:
-            logger.error("ONLYOFFICE has reported that saving the document has failed");
-            model.removeLock();
-            break;
-        case 4:
-            logger.info("No document updates, unlocking node");
-            model.removeLock();
-            break;
+
+            String ext = utils.getFileExtension(source.blob.getFilename());
+            File file = conversionManager.getConverted(digest, ext);
+            if (file == null) {
+                return Response.status(Status.NOT_FOUND).build();
+            }
+
+            Format format = Framework.getService(FormatManager.class).getFormat(conversionManager.getTargetExtension(ext));
+            String mimeType = format == null || format.getMimeTypes().isEmpty() ? MediaType.APPLICATION_OCTET_STREAM
+                    : format.getMimeTypes().get(0);
+            return Response.ok(file, mimeType).build();
+        } catch (Exception e) {
+            logger.error("Error while reading converted file of " + id, e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
         }
     }
 
-    private void updateDocument(CoreSession session, DocumentModel model, String changeToken, String url, String digest) throws Exception {
-        Blob original;
-        Blob saved;
-        if (digest.isEmpty()) {
-            original = getBlob(model, "file:content");
-            saved = Blobs.createBlob(new URL(url).openStream(), original.getMimeType(), original.getEncoding());
-            saved.setFilename(original.getFilename());
+    @GET
+    @Path("thumbnail/{id}")
+    public Object getThumbnail(@PathParam("id") String id, @QueryParam("digest") String digest, @QueryParam("index") String index,
+            @Context Request request) {
+        try {
+            SourceBlob source = getBlob(id, digest, index);
+            if (source == null) {
+                return Response.status(Status.NOT_FOUND).build();
+            }
 
-            DocumentHelper.addBlob(model.getProperty("file:content"), saved);
-        } else {
-            List<Map<String, Serializable>> files = (List<Map<String, Serializable>>) model.getPropertyValue("files:files");
-            boolean check = false;
-            for (int i=0;i<files.size();i++){
-                Map<String, Serializable> map = files.get(i);
-                original = (Blob) map.get("file");
-                if (digest.equals(original.getDigest())){
-                    saved = Blobs.createBlob(new URL(url).openStream(), original.getMimeType(), original.getEncoding());
-                    saved.setFilename(original.getFilename());
-                    files.set(i,DocumentHelper.createBlobHolderMap(saved));
-                    model.setPropertyValue("files:files", (Serializable) files);
-                    check = true;
-                    break;
+            // the thumbnail of a digest never changes, so browsers keep it until the file is saved again
+            EntityTag tag = new EntityTag(DigestUtils.md5Hex(digest) + "-" + configManager.getThumbnailSize());
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setPrivate(true);
+            cacheControl.setMaxAge(THUMBNAIL_MAX_AGE);
+
+            ResponseBuilder builder = request.evaluatePreconditions(tag);
+            if (builder == null) {
+                String ext = utils.getFileExtension(source.blob.getFilename());
+                File file = conversionManager.getThumbnail(digest, ext);
+                if (file == null) {
+                    if (!configManager.isThumbnailEnabled()
+                            || Framework.getService(FormatManager.class).getFormat(ext) == null) {
+                        return Response.status(Status.NOT_FOUND).build();
+                    }
+                    // rendered in the background, the request is not held while Document Server works
+                    conversionManager.scheduleThumbnail(getContext().getCoreSession().getRepositoryName(), id,
+                            getContext().getPrincipal().getName(), digest, ext, getSourceUrl(id, source));
+                    return Response.status(Status.ACCEPTED).build();
                 }
+                builder = Response.ok(file, "image/png");
             }
-            if (!check) {
-                return;
-            }
+            return builder.tag(tag).cacheControl(cacheControl).build();
+        } catch (IllegalArgumentException e) {
+            return Response.status(Status.NOT_FOUND).build();
+        } catch (Exception e) {
+            logger.error("Error while rendering thumbnail of " + id, e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    /**
+     * Returns the main file or the attachment of the document with the given digest, or null. The index is only a
+     * hint, the attachment is resolved by its digest.
+     */
+    private SourceBlob getBlob(String id, String digest, String index) {
+        if (digest == null) {
+            return null;
         }
 
+        DocumentModel model = getContext().getCoreSession().getDocument(new IdRef(id));
+        String xpath;
+        Blob blob = null;
+        if (index == null) {
+            xpath = "file:content";
+            BlobHolder bh = model.getAdapter(BlobHolder.class);
+            blob = bh == null ? null : bh.getBlob();
+        } else {
+            Integer attachment = utils.getAttachmentIndex(model, digest, index);
+            xpath = "files:files/" + attachment + "/file";
+            blob = attachment == null ? null : (Blob) model.getPropertyValue(xpath);
+        }
+        return blob != null && digest.equals(blob.getDigest()) ? new SourceBlob(xpath, blob) : null;
+    }
+
+    private String getSourceUrl(String id, SourceBlob source) throws Exception {
+        String token = Framework.getService(TokenManager.class).getToken(getContext().getPrincipal().getName());
+        return String.format("%s/nuxeo/nxfile/%s/%s/%s/%s?token=%s", getContext().getBaseURL(),
+                getContext().getCoreSession().getRepositoryName(), id, source.xpath, source.blob.getFilename(), token);
+    }
+
+    @GET
+    @Path("health")
+    public Object getHealth() {
+        HealthMonitor healthMonitor = Framework.getService(HealthMonitor.class);
+        HealthStatus status = healthMonitor.getStatus();
+        try {
+            JSONObject json = new JSONObject();
+            json.put("state", status.getState().name());
+            json.put("available", healthMonitor.isAvailable());
+            json.put("docServUrl", configManager.getDocServUrl());
+            json.put("latencyMs", status.getLatency());
+            json.put("failures", status.getFailures());
+            if (status.getChecked() > 0) {
+                json.put("checked", Instant.ofEpochMilli(status.getChecked()).toString());
+            }
+            if (status.getError() != null) {
+                json.put("error", status.getError());
+            }
 
-        if (model.hasFacet(FacetNames.VERSIONABLE)) {
-            VersioningOption vo = VersioningOption.MINOR;
-            model.putContextData(VersioningService.VERSIONING_OPTION, vo);
+            // the state of Document Server is reported in the body, load balancers must not take Nuxeo out of
+            // rotation because of it
+            CacheControl cacheControl = new CacheControl();
+            cacheControl.setNoStore(true);
+            return Response.ok(json.toString(2))
+                    .cacheControl(cacheControl)
+                    .build();
+        } catch (Exception e) {
+            logger.error("Error while reading Document Server health", e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
         }
+    }
 
-        model.putContextData(CoreSession.CHANGE_TOKEN, utils.getChangeToken(changeToken));
+    @GET
+    @Path("metrics")
+    public Object getMetrics() {
+        NuxeoPrincipal principal = (NuxeoPrincipal) getContext().getPrincipal();
+        if (!principal.isAdministrator()) {
+            return Response.status(Status.FORBIDDEN).build();
+        }
 
-        session.saveDocument(model);
-        session.save();
+        try {
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, Metric> entry : new TreeMap<String, Metric>(registry.getMetrics()).entrySet()) {
+                String name = entry.getKey();
+                if (name.startsWith(METRICS_PREFIX) || name.startsWith(QUEUE_METRICS_PREFIX)) {
+                    json.put(name, toJson(entry.getValue()));
+                }
+            }
+            return Response.ok(json.toString(2)).build();
+        } catch (Exception e) {
+            logger.error("Error while reading metrics", e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
     }
 
-    private Blob getBlob(DocumentModel model, String xpath) {
-        Blob blob = (Blob) model.getPropertyValue(xpath);
-        if (blob == null) {
-            BlobHolder bh = model.getAdapter(BlobHolder.class);
-            if (bh != null) {
-                blob = bh.getBlob();
+    @POST
+    @Path("config/reload")
+    public Object reloadConfig() {
+        NuxeoPrincipal principal = (NuxeoPrincipal) getContext().getPrincipal();
+        if (!principal.isAdministrator()) {
+            return Response.status(Status.FORBIDDEN).build();
+        }
+
+        try {
+            ConfigSnapshot snapshot = configManager.reloadAll();
+            JSONObject json = new JSONObject();
+            for (Map.Entry<String, String> entry : snapshot.getValues().entrySet()) {
+                boolean secret = entry.getKey().equals(ConfigSnapshot.JWT_SECRET);
+                json.put(entry.getKey(), secret ? "********" : entry.getValue());
             }
+            return Response.ok(json.toString(2)).build();
+        } catch (Exception e) {
+            logger.error("Error while reloading the configuration", e);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+
+    private Object toJson(Metric metric) throws Exception {
+        if (metric instanceof Counter) {
+            return ((Counter) metric).getCount();
+        }
+        if (metric instanceof Gauge) {
+            return String.valueOf(((Gauge<?>) metric).getValue());
+        }
+
+        JSONObject json = new JSONObject();
+        if (metric instanceof Timer) {
+            Timer timer = (Timer) metric;
+            Snapshot snapshot = timer.getSnapshot();
+            json.put("count", timer.getCount());
+            json.put("rate1m", timer.getOneMinuteRate());
+            json.put("meanMs", snapshot.getMean() / 1000000);
+            json.put("p50Ms", snapshot.getMedian() / 1000000);
+            json.put("p99Ms", snapshot.get99thPercentile() / 1000000);
+            json.put("maxMs", snapshot.getMax() / 1000000.0);
+        } else if (metric instanceof Meter) {
+            Meter meter = (Meter) metric;
+            json.put("count", meter.getCount());
+            json.put("rate1m", meter.getOneMinuteRate());
+            json.put("rate5m", meter.getFiveMinuteRate());
+        } else if (metric instanceof Histogram) {
+            Histogram histogram = (Histogram) metric;
+            Snapshot snapshot = histogram.getSnapshot();
+            json.put("count", histogram.getCount());
+            json.put("mean", snapshot.getMean());
+            json.put("p50", snapshot.getMedian());
+            json.put("p99", snapshot.get99thPercentile());
+            json.put("max", snapshot.getMax());
+        }
+        return json;
+    }
+
+    private static final class SourceBlob {
+
+        private final String xpath;
+
+        private final Blob blob;
+
+        private SourceBlob(String xpath, Blob blob) {
+            this.xpath = xpath;
+            this.blob = blob;
         }
-        return blob;
     }
 }